@@ -0,0 +1,121 @@
+/*
+ * BoundedCache.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Concurrent cache holding a maximum number of entries. When full, the oldest entries are dropped first, so that
+ * reading the cache never locks.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ * 
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public final class BoundedCache<K, V> {
+
+    /**
+     * Maximum number of entries
+     */
+    private final int maxEntries;
+
+    /**
+     * The cached values, by key
+     */
+    private final Map<K, V> values = new ConcurrentHashMap<>();
+
+    /**
+     * The cached keys, from the oldest to the newest
+     */
+    private final Queue<K> keys = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param maxEntries maximum number of entries
+     * @throws IllegalArgumentException if the maximum is not positive
+     */
+    public BoundedCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Expected a positive cache size, got " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @param key the key
+     * @return the cached value, or null if not cached
+     */
+    public V get(K key) {
+        return values.get(key);
+    }
+
+    /**
+     * Cache a value, if none is cached yet for the key, dropping the oldest entries if the cache is full
+     * 
+     * @param key the key
+     * @param value the value
+     */
+    public void put(K key, V value) {
+        if (values.putIfAbsent(key, value) == null) {
+            keys.add(key);
+            while (values.size() > maxEntries) {
+                K oldest = keys.poll();
+                if (oldest == null) {
+                    break;
+                }
+                values.remove(oldest);
+            }
+        }
+    }
+
+    /**
+     * Retrieve the cached value of a key, caching a new value if none is cached yet
+     * 
+     * @param key the key
+     * @param mapping creates the value of the key, possibly more than once when called concurrently
+     * @return the cached value, or the new value if it was dropped as soon as it was cached
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mapping) {
+        V value = values.get(key);
+        if (value == null) {
+            V created = mapping.apply(key);
+            put(key, created);
+            value = values.getOrDefault(key, created);
+        }
+        return value;
+    }
+
+    /**
+     * Drop the entries whose key matches a filter
+     * 
+     * @param filter the filter of the keys to drop
+     */
+    public void removeIf(Predicate<? super K> filter) {
+        values.keySet().removeIf(filter);
+        keys.removeIf(filter);
+    }
+
+}
@@ -0,0 +1,499 @@
+/*
+ * ColumnarVariables.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Unmodifiable variable map of tabular records, stored column-wise.
+ * <p>
+ * A set is tabular when all its top level values are records (maps) with the same fields. Instead of a map per record,
+ * each field is stored in a single column: an int, long, double or boolean array when all the field values are of that
+ * type, or a dictionary of the distinct values and an array with the position of the value of each record for text
+ * fields. Records are exposed as lightweight {@link Row} views over the columns.
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public class ColumnarVariables extends AbstractMap<String, Object> {
+
+    /**
+     * The record keys, in the original order
+     */
+    private final String[] keys;
+
+    /**
+     * Open addressing hash table with the position of each key (plus one, zero being an empty slot)
+     */
+    private final int[] keyTable;
+
+    /**
+     * The field names, in the order of the first record
+     */
+    private final String[] fields;
+
+    /**
+     * The position of each field
+     */
+    private final Map<String, Integer> fieldPositions;
+
+    /**
+     * The field columns
+     */
+    private final Column[] columns;
+
+    /**
+     * The entry set, iterating in the original order
+     */
+    private final Set<Map.Entry<String, Object>> entrySet = new EntrySet() {
+
+        @Override
+        String keyAt(int position) {
+            return keys[position];
+        }
+
+        @Override
+        Object valueAt(int position) {
+            return new Row(position);
+        }
+
+        @Override
+        public int size() {
+            return keys.length;
+        }
+    };
+
+    /**
+     * @param keys the record keys
+     * @param fields the field names
+     * @param columns the field columns
+     */
+    private ColumnarVariables(String[] keys, String[] fields, Column[] columns) {
+        this.keys = keys;
+        this.fields = fields;
+        this.columns = columns;
+        this.fieldPositions = new HashMap<>();
+        for (int i = 0; i < fields.length; i++) {
+            fieldPositions.put(fields[i], i);
+        }
+
+        keyTable = new int[Integer.highestOneBit(Math.max(keys.length, 1)) * 4];
+        for (int i = 0; i < keys.length; i++) {
+            int slot = slotOf(keys[i]);
+            keyTable[slot] = i + 1;
+        }
+    }
+
+    /**
+     * Store a set of variables column-wise, if it's tabular
+     *
+     * @param variables the variables
+     * @return the columnar variables or null if the set is not made of records with the same fields
+     */
+    public static ColumnarVariables of(Map<String, Object> variables) {
+        Map<?, ?>[] records = new Map<?, ?>[variables.size()];
+        String[] keys = new String[records.length];
+        int row = 0;
+        for (Map.Entry<String, Object> entry : variables.entrySet()) {
+            if (!(entry.getValue() instanceof Map)) {
+                return null;
+            }
+            keys[row] = entry.getKey();
+            records[row++] = (Map<?, ?>) entry.getValue();
+        }
+        if (records.length == 0) {
+            return null;
+        }
+
+        String[] fields = new String[records[0].size()];
+        int position = 0;
+        for (Object field : records[0].keySet()) {
+            if (!(field instanceof String)) {
+                return null;
+            }
+            fields[position++] = (String) field;
+        }
+        for (Map<?, ?> record : records) {
+            if (record.size() != fields.length || !record.keySet().containsAll(Arrays.asList(fields))) {
+                return null;
+            }
+        }
+
+        Column[] columns = new Column[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            Object[] values = new Object[records.length];
+            for (int j = 0; j < records.length; j++) {
+                values[j] = records[j].get(fields[i]);
+            }
+            columns[i] = Column.of(values);
+        }
+        return new ColumnarVariables(keys, fields, columns);
+    }
+
+    /**
+     * @see java.util.AbstractMap#get(java.lang.Object)
+     */
+    @Override
+    public Object get(Object key) {
+        int position = indexOf(key);
+        return position < 0 ? null : new Row(position);
+    }
+
+    /**
+     * @see java.util.AbstractMap#containsKey(java.lang.Object)
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @see java.util.AbstractMap#size()
+     */
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * @see java.util.AbstractMap#entrySet()
+     */
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return entrySet;
+    }
+
+    /**
+     * Find the position of a record key
+     *
+     * @param key the key
+     * @return the position of the record, or -1 if it's not in the map
+     */
+    private int indexOf(Object key) {
+        if (!(key instanceof String)) {
+            return -1;
+        }
+        return keyTable[slotOf((String) key)] - 1;
+    }
+
+    /**
+     * Find the slot of a key in the hash table
+     *
+     * @param key the key
+     * @return the slot with the key, or the empty slot where it would be
+     */
+    private int slotOf(String key) {
+        int mask = keyTable.length - 1;
+        int hash = key.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (keyTable[slot] != 0 && !keys[keyTable[slot] - 1].equals(key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Unmodifiable view of a record
+     */
+    public class Row extends AbstractMap<String, Object> {
+
+        /**
+         * The record position
+         */
+        private final int row;
+
+        /**
+         * The entry set, iterating in the field order
+         */
+        private final Set<Map.Entry<String, Object>> entrySet = new EntrySet() {
+
+            @Override
+            String keyAt(int position) {
+                return fields[position];
+            }
+
+            @Override
+            Object valueAt(int position) {
+                return columns[position].get(row);
+            }
+
+            @Override
+            public int size() {
+                return fields.length;
+            }
+        };
+
+        /**
+         * @param row the record position
+         */
+        private Row(int row) {
+            this.row = row;
+        }
+
+        /**
+         * @see java.util.AbstractMap#get(java.lang.Object)
+         */
+        @Override
+        public Object get(Object key) {
+            Integer field = fieldPositions.get(key);
+            return field == null ? null : columns[field].get(row);
+        }
+
+        /**
+         * @see java.util.AbstractMap#containsKey(java.lang.Object)
+         */
+        @Override
+        public boolean containsKey(Object key) {
+            return fieldPositions.containsKey(key);
+        }
+
+        /**
+         * @see java.util.AbstractMap#size()
+         */
+        @Override
+        public int size() {
+            return fields.length;
+        }
+
+        /**
+         * @see java.util.AbstractMap#entrySet()
+         */
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            return entrySet;
+        }
+    }
+
+    /**
+     * Entries built from their position
+     */
+    private abstract static class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+
+        /**
+         * @param position the entry position
+         * @return the entry key
+         */
+        abstract String keyAt(int position);
+
+        /**
+         * @param position the entry position
+         * @return the entry value
+         */
+        abstract Object valueAt(int position);
+
+        /**
+         * @see java.util.AbstractCollection#iterator()
+         */
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            return new Iterator<Map.Entry<String, Object>>() {
+
+                private int position;
+
+                @Override
+                public boolean hasNext() {
+                    return position < size();
+                }
+
+                @Override
+                public Map.Entry<String, Object> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    int current = position++;
+                    return new SimpleImmutableEntry<>(keyAt(current), valueAt(current));
+                }
+            };
+        }
+    }
+
+    /**
+     * Values of a field for all the records
+     */
+    private abstract static class Column {
+
+        /**
+         * The records with a null value, null if there's none
+         */
+        private final BitSet nulls;
+
+        /**
+         * @param nulls the records with a null value, null if there's none
+         */
+        Column(BitSet nulls) {
+            this.nulls = nulls;
+        }
+
+        /**
+         * @param row the record position
+         * @return the field value of the record
+         */
+        Object get(int row) {
+            return nulls != null && nulls.get(row) ? null : value(row);
+        }
+
+        /**
+         * @param row the record position, with a non null value
+         * @return the field value of the record
+         */
+        abstract Object value(int row);
+
+        /**
+         * Create the most compact column for a field values
+         *
+         * @param values the field value of each record
+         * @return the column
+         */
+        static Column of(Object[] values) {
+            BitSet nulls = null;
+            Class<?> type = null;
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == null) {
+                    if (nulls == null) {
+                        nulls = new BitSet(values.length);
+                    }
+                    nulls.set(i);
+                } else if (type == null) {
+                    type = values[i].getClass();
+                } else if (type != values[i].getClass()) {
+                    type = Object.class;
+                }
+            }
+
+            if (type == Integer.class) {
+                int[] column = new int[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    column[i] = values[i] == null ? 0 : (Integer) values[i];
+                }
+                return new Column(nulls) {
+                    @Override
+                    Object value(int row) {
+                        return column[row];
+                    }
+                };
+            } else if (type == Long.class) {
+                long[] column = new long[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    column[i] = values[i] == null ? 0 : (Long) values[i];
+                }
+                return new Column(nulls) {
+                    @Override
+                    Object value(int row) {
+                        return column[row];
+                    }
+                };
+            } else if (type == Double.class) {
+                double[] column = new double[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    column[i] = values[i] == null ? 0 : (Double) values[i];
+                }
+                return new Column(nulls) {
+                    @Override
+                    Object value(int row) {
+                        return column[row];
+                    }
+                };
+            } else if (type == Boolean.class) {
+                BitSet column = new BitSet(values.length);
+                for (int i = 0; i < values.length; i++) {
+                    column.set(i, values[i] != null && (Boolean) values[i]);
+                }
+                return new Column(nulls) {
+                    @Override
+                    Object value(int row) {
+                        return column.get(row);
+                    }
+                };
+            } else if (type == String.class) {
+                return dictionary(values, nulls);
+            }
+            // mixed types or nested values, kept as they are
+            return new Column(null) {
+                @Override
+                Object value(int row) {
+                    return values[row];
+                }
+            };
+        }
+
+        /**
+         * Create a dictionary encoded column, with the narrowest codes for the number of distinct values
+         *
+         * @param values the field value of each record, all strings or null
+         * @param nulls the records with a null value
+         * @return the column
+         */
+        private static Column dictionary(Object[] values, BitSet nulls) {
+            Map<Object, Integer> codes = new HashMap<>();
+            int[] column = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    Integer code = codes.get(values[i]);
+                    if (code == null) {
+                        code = codes.size();
+                        codes.put(values[i], code);
+                    }
+                    column[i] = code;
+                }
+            }
+            String[] dictionary = new String[codes.size()];
+            codes.forEach((value, code) -> dictionary[code] = (String) value);
+
+            if (dictionary.length <= 1 << Byte.SIZE) {
+                byte[] narrow = new byte[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    narrow[i] = (byte) column[i];
+                }
+                return new Column(nulls) {
+                    @Override
+                    Object value(int row) {
+                        return dictionary[narrow[row] & 0xFF];
+                    }
+                };
+            } else if (dictionary.length <= 1 << Short.SIZE) {
+                short[] narrow = new short[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    narrow[i] = (short) column[i];
+                }
+                return new Column(nulls) {
+                    @Override
+                    Object value(int row) {
+                        return dictionary[narrow[row] & 0xFFFF];
+                    }
+                };
+            }
+            return new Column(nulls) {
+                @Override
+                Object value(int row) {
+                    return dictionary[column[row]];
+                }
+            };
+        }
+    }
+
+}
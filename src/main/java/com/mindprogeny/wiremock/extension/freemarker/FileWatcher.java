@@ -0,0 +1,307 @@
+/*
+ * FileWatcher.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.github.tomakehurst.wiremock.common.LocalNotifier;
+
+/**
+ * Watches a directory for created, modified and deleted files, notifying a listener from a background daemon thread.
+ * <p>
+ * The listener receives the path of each changed file, or null when events were lost (in which case any file may have
+ * changed). How soon changes are noticed depends on the platform: native file system events where available, polling
+ * otherwise.
+ * <p>
+ * Listeners that may come and go, such as the caches of each transformer instance, should subscribe (see
+ * {@link #subscribe(Path, Consumer)}) rather than create their own watcher: all the subscriptions to a directory share a
+ * single recursive watcher, which is closed along with its last subscription, or once all its subscriptions were
+ * garbage collected.
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public class FileWatcher implements Closeable {
+
+    /**
+     * The shared watchers, by watched directory
+     */
+    private static final Map<Path, FileWatcher> SHARED = new HashMap<>();
+
+    /**
+     * How long the thread of a shared watcher waits for events before checking if it's still subscribed to, in seconds
+     */
+    private static final long SUBSCRIPTION_CHECK_SECONDS = 10;
+
+    /**
+     * A subscription to a shared watcher, which notifies its listener for as long as it's referenced and not closed
+     */
+    public static final class Subscription implements Closeable {
+
+        /**
+         * The shared watcher
+         */
+        private final FileWatcher watcher;
+
+        /**
+         * Notified of every changed file, or with null if events were lost
+         */
+        private final Consumer<Path> listener;
+
+        /**
+         * @param watcher the shared watcher
+         * @param listener notified of every changed file, or with null if events were lost
+         */
+        private Subscription(FileWatcher watcher, Consumer<Path> listener) {
+            this.watcher = watcher;
+            this.listener = listener;
+        }
+
+        /**
+         * @return the watched directory
+         */
+        public Path getDirectory() {
+            return watcher.getDirectory();
+        }
+
+        /**
+         * Stop notifying the listener, closing the watcher if it was its last subscription
+         * 
+         * @see java.io.Closeable#close()
+         */
+        @Override
+        public void close() throws IOException {
+            watcher.release(this);
+        }
+    }
+
+    /**
+     * The watched directory
+     */
+    private final Path directory;
+
+    /**
+     * The watch service of the directory file system
+     */
+    private final WatchService watchService;
+
+    /**
+     * Whether sub directories are watched too
+     */
+    private final boolean recursive;
+
+    /**
+     * Notified of every changed file, or with null if events were lost
+     */
+    private final Consumer<Path> listener;
+
+    /**
+     * The subscriptions of a shared watcher, held weakly so that a subscription dropped without being closed stops the
+     * watcher too, or null if the watcher is not shared
+     */
+    private final List<WeakReference<Subscription>> subscriptions;
+
+    /**
+     * @param directory the directory to watch
+     * @param recursive true to also watch the sub directories
+     * @param listener notified of every changed file, or with null if events were lost
+     * @throws IOException if the directory can't be watched
+     */
+    public FileWatcher(Path directory, boolean recursive, Consumer<Path> listener) throws IOException {
+        this(directory, recursive, listener, null);
+    }
+
+    /**
+     * @param directory the directory to watch
+     * @param recursive true to also watch the sub directories
+     * @param listener notified of every changed file, or with null if events were lost, null to notify the subscriptions
+     * @param subscriptions the subscriptions of a shared watcher, or null if the watcher is not shared
+     * @throws IOException if the directory can't be watched
+     */
+    private FileWatcher(Path directory, boolean recursive, Consumer<Path> listener, List<WeakReference<Subscription>> subscriptions)
+            throws IOException {
+        this.directory = directory;
+        this.watchService = directory.getFileSystem().newWatchService();
+        this.recursive = recursive;
+        this.listener = listener == null ? this::notifySubscriptions : listener;
+        this.subscriptions = subscriptions;
+        register(directory);
+
+        Thread thread = new Thread(this::run, "freemarker-file-watcher " + directory);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Subscribe to the changes of a directory and its sub directories, sharing the watcher of the directory with its
+     * other subscriptions. The listener is notified for as long as the subscription is referenced and not closed.
+     * 
+     * @param directory the directory to watch
+     * @param listener notified of every changed file, or with null if events were lost
+     * @return the subscription
+     * @throws IOException if the directory can't be watched
+     */
+    public static Subscription subscribe(Path directory, Consumer<Path> listener) throws IOException {
+        Path watched = directory.toAbsolutePath().normalize();
+        synchronized (SHARED) {
+            FileWatcher watcher = SHARED.get(watched);
+            if (watcher == null) {
+                watcher = new FileWatcher(watched, true, null, new CopyOnWriteArrayList<>());
+                SHARED.put(watched, watcher);
+            }
+            Subscription subscription = new Subscription(watcher, listener);
+            watcher.subscriptions.add(new WeakReference<>(subscription));
+            return subscription;
+        }
+    }
+
+    /**
+     * @return the watched directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Stop watching the directory
+     * 
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    /**
+     * Drop a subscription, along with those that were garbage collected, closing the shared watcher when none is left
+     * 
+     * @param subscription the closed subscription, or null to only drop the collected ones
+     * @throws IOException if the watcher can't be closed
+     */
+    private void release(Subscription subscription) throws IOException {
+        synchronized (SHARED) {
+            subscriptions.removeIf(reference -> reference.get() == null || reference.get() == subscription);
+            if (subscriptions.isEmpty()) {
+                SHARED.remove(directory, this);
+                close();
+            }
+        }
+    }
+
+    /**
+     * Notify the subscriptions of a shared watcher of a change
+     * 
+     * @param file the changed file, or null if events were lost
+     */
+    private void notifySubscriptions(Path file) {
+        for (WeakReference<Subscription> reference : subscriptions) {
+            Subscription subscription = reference.get();
+            if (subscription != null) {
+                subscription.listener.accept(file);
+            }
+        }
+    }
+
+    /**
+     * Register a directory, and its sub directories when recursive
+     * 
+     * @param directory the directory
+     * @throws IOException if the directory can't be registered
+     */
+    private void register(Path directory) throws IOException {
+        if (!recursive) {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            return;
+        }
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path subDirectory, BasicFileAttributes attributes) throws IOException {
+                subDirectory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Dispatch the watch events until the watcher is closed, or until a shared watcher has no subscriptions left
+     */
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.poll(SUBSCRIPTION_CHECK_SECONDS, TimeUnit.SECONDS);
+                if (key != null) {
+                    Path directory = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        dispatch(event.kind() == StandardWatchEventKinds.OVERFLOW ? null : directory.resolve((Path) event.context()),
+                                event.kind() == StandardWatchEventKinds.ENTRY_CREATE);
+                    }
+                    key.reset();
+                }
+                if (subscriptions != null) {
+                    release(null);
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // the watcher was closed
+        } catch (IOException ioe) {
+            LocalNotifier.notifier().error("Unable to close the watcher of " + directory, ioe);
+        }
+    }
+
+    /**
+     * Notify the listener of a change
+     * 
+     * @param file the changed file, or null if events were lost
+     * @param created true if the file was created
+     */
+    private void dispatch(Path file, boolean created) {
+        try {
+            if (created && recursive && Files.isDirectory(file)) {
+                register(file);
+            }
+            listener.accept(file);
+        } catch (IOException | RuntimeException e) {
+            // keep watching for the following changes
+            LocalNotifier.notifier().error("Unable to process change of " + file, e);
+        }
+    }
+
+}
@@ -20,38 +20,52 @@ package com.mindprogeny.wiremock.extension.freemarker;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
-import com.github.tomakehurst.wiremock.common.BinaryFile;
 import com.github.tomakehurst.wiremock.common.FileSource;
+import com.github.tomakehurst.wiremock.common.LocalNotifier;
 import com.github.tomakehurst.wiremock.extension.Parameters;
 import com.github.tomakehurst.wiremock.extension.ResponseDefinitionTransformer;
 import com.github.tomakehurst.wiremock.http.Request;
 import com.github.tomakehurst.wiremock.http.ResponseDefinition;
+import com.mindprogeny.wiremock.extension.freemarker.model.CachedDirective;
+import com.mindprogeny.wiremock.extension.freemarker.model.LayeredHashModel;
+import com.mindprogeny.wiremock.extension.freemarker.model.VariableHashModel;
+import com.mindprogeny.wiremock.extension.freemarker.model.VariableIndexMethod;
+import com.mindprogeny.wiremock.extension.freemarker.model.VariableUpdateMethod;
 import com.mindprogeny.wiremock.extension.freemarker.objectbuilder.CanonicalNamespacedXmlObjectBuilder;
 import com.mindprogeny.wiremock.extension.freemarker.objectbuilder.CanonicalXmlObjectBuilder;
 import com.mindprogeny.wiremock.extension.freemarker.objectbuilder.GenericNamespacedXmlObjectBuilder;
 import com.mindprogeny.wiremock.extension.freemarker.objectbuilder.GenericXmlObjectBuilder;
 import com.mindprogeny.wiremock.extension.freemarker.objectbuilder.XmlObjectBuilder;
+import freemarker.cache.MultiTemplateLoader;
+import freemarker.cache.TemplateLoader;
+import freemarker.core.Environment;
 import freemarker.template.Configuration;
+import freemarker.template.Template;
 import freemarker.template.TemplateException;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateModelException;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParserFactory;
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.net.HttpURLConnection;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Base64;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -64,6 +78,12 @@ import java.util.regex.Pattern;
  */
 public class FreemarkerResponseTransformer extends ResponseDefinitionTransformer {
 
+    /**
+     * System property to check the template files for changes on every render (false) rather than watching the
+     * <code>__files</code> directory (true, the default)
+     */
+    public static final String WATCH_TEMPLATES_PROPERTY = "freemarker.templates.watch";
+
     /**
      * Transformer parameter to explicitly convert an input request as a defined type
      */
@@ -150,12 +170,13 @@ public class FreemarkerResponseTransformer extends ResponseDefinitionTransformer
     private static final String REQUEST_COOKIES_NAME = "cookies";
     
     /**
-     * Name of the optional variable set(s) to use with the template
+     * Name of the optional variable set(s) to use with the template. Several sets can be given as a list or separated by
+     * commas, the first ones overriding the variables of the following ones.
      */
     private static final String VARIABLE_SET = "variable-set";
 
     /**
-     * Source of what will be used from the request to search for a key (url,header,body)
+     * Source of what will be used from the request to search for a key (url,headers,body,object)
      */
     private static final String VARIABLE_KEY_SOURCE = "variable-key-source";
     
@@ -163,6 +184,47 @@ public class FreemarkerResponseTransformer extends ResponseDefinitionTransformer
      * Matching rule to apply
      */
     private static final String VARIABLE_KEY_MATCHING_RULE = "variable-key-matches";
+
+    /**
+     * Path (json pointer) in the parsed request object holding the key, when the key source is the request object
+     */
+    private static final String VARIABLE_KEY_PATH = "variable-key-path";
+
+    /**
+     * Name of the header holding the key, when the key source are the request headers
+     */
+    private static final String VARIABLE_KEY_HEADER = "variable-key-header";
+
+    /**
+     * Parameter to cache the rendered responses of a stub (true or false values)
+     */
+    private static final String RENDER_CACHE = "render-cache";
+
+    /**
+     * Paths (json pointers) in the parsed request object the rendered responses are cached by, as a list or separated
+     * by commas. The whole request is used if not defined.
+     */
+    private static final String RENDER_CACHE_KEY = "render-cache-key";
+
+    /**
+     * Maximum number of rendered responses cached for a stub
+     */
+    private static final String RENDER_CACHE_SIZE = "render-cache-size";
+
+    /**
+     * Default maximum number of rendered responses cached for a stub
+     */
+    private static final int DEFAULT_RENDER_CACHE_SIZE = 1000;
+
+    /**
+     * Maximum number of stubs whose rendered responses are cached
+     */
+    private static final int MAX_RENDER_CACHES = 1000;
+
+    /**
+     * Key source value to take the key from the parsed request object
+     */
+    private static final String OBJECT_KEY_SOURCE = "object";
         
     /**
      * Object Mapper to parse json requests
@@ -189,13 +251,66 @@ public class FreemarkerResponseTransformer extends ResponseDefinitionTransformer
      */
     private LocalThreadTemplateLoader templateLoader = new LocalThreadTemplateLoader();
 
+    /**
+     * Request object paths already compiled, by their definition
+     */
+    private Map<String, RequestObjectPath> requestObjectPaths = new ConcurrentHashMap<>();
+
+    /**
+     * Variable key matching rules already compiled, by their definition
+     */
+    private Map<String, Pattern> keyMatchPatterns = new ConcurrentHashMap<>();
+
+    /**
+     * Variable set names to layer, by variable set parameter
+     */
+    private Map<Object, List<String>> variableSetLayers = new ConcurrentHashMap<>();
+
+    /**
+     * The templates of the stub files, dropping the compiled template of each changed file
+     */
+    private TemplateFileCache templateFiles;
+
+    /**
+     * Rendered responses caches, by stub template and parameters. Bounded, as the caches of removed stubs are never
+     * used again, and dropped along with the compiled template of their file.
+     */
+    private BoundedCache<List<Object>, RenderCache> renderCaches = new BoundedCache<>(MAX_RENDER_CACHES);
+
+    /**
+     * The buffers templates are rendered to, two for each processor
+     */
+    private RenderBuffers renderBuffers = new RenderBuffers(2 * Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Template loader of the libraries kept in the stub files
+     */
+    private LibraryTemplateLoader libraryLoader = new LibraryTemplateLoader();
+
+    /**
+     * Whether the stub files directory was given to the library loader
+     */
+    private volatile boolean librariesResolved;
+
     /**
      * Initialize configuration and sax parser factory
      */
     public FreemarkerResponseTransformer() {
+        boolean watching = Boolean.parseBoolean(System.getProperty(WATCH_TEMPLATES_PROPERTY, Boolean.TRUE.toString()));
+        templateFiles = new TemplateFileCache(this::removeTemplate, watching);
         configuration = new Configuration(Configuration.VERSION_2_3_23);
-        configuration.setTemplateLoader(templateLoader);
-        configuration.setTemplateUpdateDelayMilliseconds(Long.MAX_VALUE);
+        configuration.setTemplateLoader(new MultiTemplateLoader(new TemplateLoader[] {templateLoader, libraryLoader}));
+        // stub templates are named after their digest, they can't have localized variants
+        configuration.setLocalizedLookup(false);
+        if (watching) {
+            // changed libraries are discarded as soon as their file changes, otherwise they're checked by freemarker
+            configuration.setTemplateUpdateDelayMilliseconds(Long.MAX_VALUE);
+        }
+        configuration.setSharedVariable("varIndex", new VariableIndexMethod());
+        configuration.setSharedVariable("varIncrement", new VariableUpdateMethod(VariableUpdateMethod.Operation.INCREMENT));
+        configuration.setSharedVariable("varCompareAndSet", new VariableUpdateMethod(VariableUpdateMethod.Operation.COMPARE_AND_SET));
+        configuration.setSharedVariable("varGetAndPut", new VariableUpdateMethod(VariableUpdateMethod.Operation.GET_AND_PUT));
+        configuration.setSharedVariable("cached", new CachedDirective());
         saxParserFactory = SAXParserFactory.newInstance();
         saxParserFactory.setNamespaceAware(true);
         xmlReader = new ThreadLocal<XMLReader>(){
@@ -260,15 +375,28 @@ public class FreemarkerResponseTransformer extends ResponseDefinitionTransformer
                                             .build();
         }
         
-        String template = getStubTemplate(responseDefinition, files);
-        
-        requestObject.put("var", getVariables(request,parameters));
+        TemplateFileCache.TemplateFile template = getStubTemplate(responseDefinition, files);
+        resolveLibraries(files);
 
         try {
+            // the whole repository is pinned once, so that every set read by the render comes from the same version
+            Map<String, VariableSet> snapshots = FreemarkerVariableRepository.getSnapshots();
+            String variableKey = getVariableKey(request, requestObject, parameters);
+            RenderCache renderCache = getRenderCache(template, parameters);
+            String cacheKey = renderCache == null ? null : renderCache.key(request, requestObject, getLayers(parameters), variableKey, snapshots);
+            String body = cacheKey == null ? null : renderCache.get(cacheKey);
+            if (body == null) {
+                requestObject.put("var", getVariables(parameters, variableKey, snapshots));
+                body = transformResponse(template, requestObject, snapshots);
+                if (cacheKey != null) {
+                    renderCache.put(cacheKey, body);
+                }
+            }
+
             return ResponseDefinitionBuilder.like(responseDefinition)
                                             .but()
                                             .withBodyFile(null) // if the template was defined in a file, we clean it up
-                                            .withBody(transformResponse(template, requestObject))
+                                            .withBody(body)
                                             .build();
         } catch (Exception e) {
             StringWriter writer = new StringWriter();
@@ -374,21 +502,32 @@ public class FreemarkerResponseTransformer extends ResponseDefinitionTransformer
     /**
      * Apply a parsed request object to a freemarker template
      * 
-     * @param template the template to apply the object to
+     * @param template the template to apply the object to, compiled on first use
      * @param requestObject the parsed request object
+     * @param snapshots the variable sets pinned for this render
      * @return the transformed template
      * @throws IOException If errors occur in reading the template or writing the response
      * @throws TemplateException If errors occur in the template definition
-     * @throws NoSuchAlgorithmException 
      */
     @SuppressWarnings("rawtypes")
-    private String transformResponse(String template, Map requestObject) throws IOException, TemplateException, NoSuchAlgorithmException {
-
-        StringWriter writer = new StringWriter();
-        String templateName = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-1").digest(template.getBytes()));
-        templateLoader.setLocalTemplate(template);
-        configuration.getTemplate(templateName).process(requestObject, writer);
-        return writer.toString();
+    private String transformResponse(TemplateFileCache.TemplateFile template, Map requestObject, Map<String, VariableSet> snapshots) throws IOException, TemplateException {
+
+        Template compiled = template.getCompiled();
+        if (compiled == null) {
+            templateLoader.setLocalTemplate(template.getName(), template.getContent());
+            compiled = configuration.getTemplate(template.getName());
+            // cached template files keep their compiled template, skipping the lookup in the configuration cache
+            template.setCompiled(compiled);
+        }
+        RenderBuffers.RenderBuffer buffer = renderBuffers.acquire(template.getName());
+        try {
+            Environment environment = compiled.createProcessingEnvironment(requestObject, buffer);
+            environment.setCustomAttribute(VariableIndexMethod.SNAPSHOTS_ATTRIBUTE, snapshots);
+            environment.process();
+            return buffer.toString();
+        } finally {
+            renderBuffers.release(template.getName(), buffer);
+        }
     }
 
     /**
@@ -398,15 +537,54 @@ public class FreemarkerResponseTransformer extends ResponseDefinitionTransformer
      * @param files Any files associated to the stub
      * @return the freemarker template
      */
-    private String getStubTemplate(ResponseDefinition responseDefinition, FileSource files) {
+    private TemplateFileCache.TemplateFile getStubTemplate(ResponseDefinition responseDefinition, FileSource files) {
         String template = responseDefinition.getBody();
         if (template == null) {
-            BinaryFile file = files.getBinaryFileNamed(responseDefinition.getBodyFileName());
-
             // If the defined file is not a template, freemarker will complain later.
-            template = new String(file.readContents(), StandardCharsets.UTF_8);
+            return templateFiles.get(files, responseDefinition.getBodyFileName());
+        }
+        return new TemplateFileCache.TemplateFile(template);
+    }
+
+    /**
+     * Give the stub files directory to the library loader, the first time a stub is transformed
+     * 
+     * @param files the stub files
+     */
+    private void resolveLibraries(FileSource files) {
+        if (!librariesResolved) {
+            synchronized (libraryLoader) {
+                URI root = files.getUri();
+                if (!librariesResolved && "file".equals(root.getScheme()) && new File(root).isDirectory()) {
+                    try {
+                        libraryLoader.setDirectory(new File(root));
+                        templateFiles.watch(files);
+                    } catch (IOException ioe) {
+                        LocalNotifier.notifier().error("Unable to load template libraries from " + root, ioe);
+                    }
+                }
+                librariesResolved = true;
+            }
+        }
+    }
+
+    /**
+     * Discard a compiled template, once its file changed
+     * 
+     * @param templateName the name the template was compiled with, or null to discard all the compiled templates
+     */
+    private void removeTemplate(String templateName) {
+        renderCaches.removeIf(key -> templateName == null || templateName.equals(key.get(0)));
+        try {
+            if (templateName == null) {
+                configuration.clearTemplateCache();
+            } else {
+                configuration.removeTemplateFromCache(templateName);
+            }
+        } catch (IOException ioe) {
+            // the template is compiled again anyway if its content comes back
+            LocalNotifier.notifier().error("Unable to discard compiled template " + templateName, ioe);
         }
-        return template;
     }
 
     /**
@@ -461,40 +639,148 @@ public class FreemarkerResponseTransformer extends ResponseDefinitionTransformer
         return jsonMapper.readValue(request, Map.class);
     }
 
+    /**
+     * Parse the variable set parameter of a stub
+     * 
+     * @param variableSetNames a single variable set name, a comma separated list of names or a list of names
+     * @return the names of the variable sets to layer, from the first to be searched to the last
+     */
+    private static List<String> parseLayers(Object variableSetNames) {
+        List<String> result = new ArrayList<>();
+        if (variableSetNames instanceof Collection) {
+            ((Collection<?>) variableSetNames).forEach(name -> result.add(String.valueOf(name).trim()));
+        } else {
+            for (String name : variableSetNames.toString().split(",")) {
+                result.add(name.trim());
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Retrieve the variable sets of a stub
+     * 
+     * @param parameters all the stub parameters
+     * @return the names of the variable sets to layer, or null if the stub has no variables
+     */
+    private List<String> getLayers(Parameters parameters) {
+        Object variableSetNames = parameters.get(VARIABLE_SET);
+        return variableSetNames == null ? null : variableSetLayers.computeIfAbsent(variableSetNames, FreemarkerResponseTransformer::parseLayers);
+    }
+
+    /**
+     * Retrieve the rendered responses cache of a stub
+     * 
+     * @param template the stub template
+     * @param parameters all the stub parameters
+     * @return the rendered responses cache, or null if the stub responses are not cached
+     */
+    private RenderCache getRenderCache(TemplateFileCache.TemplateFile template, Parameters parameters) {
+        if (parameters == null || !Boolean.parseBoolean(String.valueOf(parameters.get(RENDER_CACHE)))) {
+            return null;
+        }
+        return renderCaches.computeIfAbsent(Arrays.asList(template.getName(), parameters), key -> {
+            Object size = parameters.get(RENDER_CACHE_SIZE);
+            return new RenderCache(template.getContent(), parameters.get(RENDER_CACHE_KEY), "headers".equals(parameters.get(VARIABLE_KEY_SOURCE)),
+                    size == null ? DEFAULT_RENDER_CACHE_SIZE : Integer.parseInt(size.toString()));
+        });
+    }
+
     /**
      * Retrieve any variables that should be made available in the template
      * 
-     * @param request the request object
      * @param parameters all the stub parameters
+     * @param variableKey the key of the variables chosen for the request (see
+     *            {@link #getVariableKey(Request, Map, Parameters)}), or null to make the whole sets available
+     * @param snapshots the variable sets pinned for this render
      * @return the set of variables to be added to the request object or null if no variables were requested
+     * @throws TemplateModelException if the variables can't be read
      */
-    @SuppressWarnings("unchecked")
-    private Object getVariables(Request request, Parameters parameters) {
+    private Object getVariables(Parameters parameters, String variableKey, Map<String, VariableSet> snapshots) throws TemplateModelException {
         // check if we should use a variable set
-        String variableSetName = parameters == null ? null : (String) parameters.get(VARIABLE_SET);
-        if (variableSetName != null) {
-            Map<String,Object> variableSet = FreemarkerVariableRepository.getVariableSet(variableSetName);
-            String variableKeySource = (String) parameters.get(VARIABLE_KEY_SOURCE);
-            if (variableKeySource != null) {
-                String variableKeyMatchPattern = parameters.getString(VARIABLE_KEY_MATCHING_RULE);
-                Pattern keyMatchPattern = Pattern.compile(variableKeyMatchPattern);
-                Matcher keyMatcher = null;
-                switch (variableKeySource) {
-                case "url" : keyMatcher = keyMatchPattern.matcher(request.getUrl()); break;
-                case "headers" : StringBuffer buffer = new StringBuffer();
-                                 request.getHeaders().all().forEach(x -> buffer.append(x.toString()));
-                                 keyMatchPattern.matcher(buffer.toString());
-                                 break;
-                case "body" : keyMatcher = keyMatchPattern.matcher(request.getBodyAsString()); break;
-                }
-                if (keyMatcher.matches()) {
-                    variableSet = (Map<String, Object>) variableSet.get(keyMatcher.group(1));
+        Object variableSetNames = parameters == null ? null : parameters.get(VARIABLE_SET);
+        if (variableSetNames != null) {
+            List<VariableHashModel> layers = new ArrayList<>();
+            for (String variableSetName : getLayers(parameters)) {
+                VariableSet snapshot = snapshots.get(variableSetName);
+                // the variables are given to the template already wrapped, so that the wrapping is shared by all renders
+                if (snapshot != null && snapshot.getModel() != null) {
+                    layers.add(snapshot.getModel());
                 }
             }
+            TemplateHashModel variableSet = LayeredHashModel.of(layers);
+            if (variableKey != null && variableSet != null) {
+                return variableSet.get(variableKey);
+            }
             return variableSet;
         }
         
         return null;
     }
 
+    /**
+     * Retrieve the key of the variables chosen for a request, when the stub chooses them from its variable sets
+     * 
+     * @param request the request object
+     * @param requestObject the already parsed request object
+     * @param parameters all the stub parameters
+     * @return the key of the variables, or null if the stub has no variables, doesn't choose them, or the request has no key
+     * @throws IllegalArgumentException if the key source parameters are invalid
+     */
+    @SuppressWarnings("rawtypes")
+    private String getVariableKey(Request request, Map requestObject, Parameters parameters) {
+        String variableKeySource = parameters == null || parameters.get(VARIABLE_SET) == null ? null : (String) parameters.get(VARIABLE_KEY_SOURCE);
+        if (variableKeySource == null) {
+            return null;
+        }
+        String variableKeyMatchPattern = (String) parameters.get(VARIABLE_KEY_MATCHING_RULE);
+        Pattern keyMatchPattern = variableKeyMatchPattern == null ? null : keyMatchPatterns.computeIfAbsent(variableKeyMatchPattern, Pattern::compile);
+        String keySource = null;
+        // for sources which target the key directly, the matching rule is optional
+        boolean targeted = false;
+        switch (variableKeySource) {
+        case "url" : keySource = request.getUrl(); break;
+        case "headers" :
+            String variableKeyHeader = (String) parameters.get(VARIABLE_KEY_HEADER);
+            if (variableKeyHeader != null) {
+                keySource = request.getHeader(variableKeyHeader);
+                targeted = true;
+            } else {
+                StringBuilder buffer = new StringBuilder();
+                request.getHeaders().all().forEach(x -> buffer.append(x.toString()));
+                keySource = buffer.toString();
+            }
+            break;
+        case "body" : keySource = request.getBodyAsString(); break;
+        case OBJECT_KEY_SOURCE :
+            // the key is taken from the already parsed request
+            String variableKeyPath = (String) parameters.get(VARIABLE_KEY_PATH);
+            if (variableKeyPath == null) {
+                throw new IllegalArgumentException("Missing \"" + VARIABLE_KEY_PATH + "\" for variable key source \"" + variableKeySource + "\"");
+            }
+            Object key = requestObjectPaths.computeIfAbsent(variableKeyPath, RequestObjectPath::compile)
+                                           .resolve(requestObject);
+            if (key != null && !(key instanceof Map) && !(key instanceof Collection)) {
+                keySource = key.toString();
+            }
+            targeted = true;
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown variable key source \"" + variableKeySource + "\"");
+        }
+
+        if (keyMatchPattern == null) {
+            if (!targeted) {
+                throw new IllegalArgumentException("Missing \"" + VARIABLE_KEY_MATCHING_RULE + "\" for variable key source \"" + variableKeySource + "\"");
+            }
+            return keySource;
+        } else if (keySource != null) {
+            Matcher keyMatcher = keyMatchPattern.matcher(keySource);
+            if (keyMatcher.matches()) {
+                return keyMatcher.group(1);
+            }
+        }
+        return null;
+    }
+
 }
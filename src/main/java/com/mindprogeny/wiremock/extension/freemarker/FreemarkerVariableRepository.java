@@ -18,11 +18,43 @@
  */
 package com.mindprogeny.wiremock.extension.freemarker;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.github.tomakehurst.wiremock.common.LocalNotifier;
 
 /**
  * Central repository for freemarker variables
+ * <p>
+ * Variable sets are published as immutable {@link VariableSet} snapshots, themselves held in an immutable map of all the
+ * sets which is atomically swapped on every update. Readers never lock, and a render which keeps the map it started
+ * with (see {@link #getSnapshots()}) sees a single consistent version of the whole repository, even when several sets
+ * are updated together (see {@link #apply(List)}).
+ * <p>
+ * When a {@link VariableJournal} is enabled, every update is recorded in the journal before being published, so that
+ * the repository can be restored after a restart. Updates are then serialized so that the journal records them in the
+ * same order they are published.
  * 
  * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
  * @since 22 Mar 2018
@@ -30,7 +62,50 @@ import java.util.Map;
  */
 public class FreemarkerVariableRepository {
 
-    private Map<String, Map<String, Object>> variableSets;
+    /**
+     * The published variable sets by name, an unmodifiable map replaced on every update
+     */
+    private volatile Map<String, VariableSet> variableSets;
+
+    /**
+     * The settings of each variable set, by name
+     */
+    private Map<String, VariableSetSettings> settings;
+
+    /**
+     * Repository version, incremented for every update
+     */
+    private AtomicLong version;
+
+    /**
+     * The version of the currently published variable sets, only updated once they are visible to the readers
+     */
+    private volatile long publishedVersion;
+
+    /**
+     * Lock serializing the updates of the repository
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * The journal recording the updates, or null if the repository is not durable
+     */
+    private VariableJournal journal;
+
+    /**
+     * Tracks the variables of the sets with an eviction policy
+     */
+    private final VariableEviction eviction = new VariableEviction();
+
+    /**
+     * Evicts the expired variables in the background, started when the first set with a ttl is published
+     */
+    private ScheduledExecutorService sweeper;
+
+    /**
+     * Keeps the sets loaded from a directory in sync with its files, or null if no directory is watched
+     */
+    private volatile FileWatcher watcher;
     
     private static final FreemarkerVariableRepository instance = new FreemarkerVariableRepository();
     
@@ -38,7 +113,9 @@ public class FreemarkerVariableRepository {
      * 
      */
     private FreemarkerVariableRepository() {
-        variableSets = new HashMap<>();
+        variableSets = Collections.emptyMap();
+        settings = new ConcurrentHashMap<>();
+        version = new AtomicLong();
     }
     
     public static final FreemarkerVariableRepository getInstance() {
@@ -46,22 +123,303 @@ public class FreemarkerVariableRepository {
     }
     
     public static Map<String,Object> getVariableSet(String setName) {
+        return variablesOf(instance.variableSets.get(setName));
+    }
+
+    /**
+     * Retrieve the currently published snapshot of a variable set
+     * 
+     * @param setName the variable set name
+     * @return the variable set snapshot or null if no set exists with the given name
+     */
+    public static VariableSet getSnapshot(String setName) {
         return instance.variableSets.get(setName);
     }
-    
-    public static Map<String,Map<String,Object>> getVariableSets() {
+
+    /**
+     * Retrieve the currently published snapshot of all the variable sets, which won't change with later updates
+     * 
+     * @return an unmodifiable map of the variable set snapshots, by set name
+     */
+    public static Map<String, VariableSet> getSnapshots() {
         return instance.variableSets;
     }
 
+    /**
+     * Retrieve the version of the repository. The version increases with every published update, and the sets read
+     * after this call are at least as recent as the returned version.
+     * 
+     * @return the current repository version
+     */
+    public static long getVersion() {
+        return instance.publishedVersion;
+    }
+
+    /**
+     * Wait for an update of the repository to be published
+     * 
+     * @param version the version the caller already knows of
+     * @param timeout maximum time to wait, in milliseconds
+     * @return true if a newer version has been published, false if the timeout expired first
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public static boolean awaitVersion(long version, long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        synchronized (instance.writeLock) {
+            long remaining = timeout;
+            while (instance.publishedVersion <= version && remaining > 0) {
+                instance.writeLock.wait(remaining);
+                remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            }
+            return instance.publishedVersion > version;
+        }
+    }
+
+    /**
+     * Retrieve a snapshot of all variable sets
+     * 
+     * @return an unmodifiable map of the variables of each set, by set name
+     */
+    public static Map<String,Map<String,Object>> getVariableSets() {
+        Map<String,Map<String,Object>> result = new LinkedHashMap<>();
+        instance.variableSets.forEach((name, set) -> result.put(name, set.getVariables()));
+        return Collections.unmodifiableMap(result);
+    }
+
     public static Map<String,Object> setVariableSet(String setName, Map<String,Object> variableSet) {
-        synchronized(instance.variableSets) { // avoid corrupting the map with concurrent calls
-            return instance.variableSets.put(setName, variableSet);
+        return publish(setName, VariableSet.freeze(variableSet));
+    }
+
+    /**
+     * Create or replace a variable set with the entries of a builder, without copying them again
+     * 
+     * @param setName the variable set name
+     * @param builder the builder with the set entries, which can't be used afterwards
+     * @return the previous variables of the set, or null if the set didn't exist
+     */
+    public static Map<String,Object> setVariableSet(String setName, VariableSetBuilder builder) {
+        return publish(setName, builder.build());
+    }
+
+    /**
+     * Publish a new version of a variable set
+     * 
+     * @param setName the variable set name
+     * @param variables the frozen variables of the set
+     * @return the previous variables of the set, or null if the set didn't exist
+     */
+    private static Map<String,Object> publish(String setName, Map<String,Object> variables) {
+        synchronized (instance.writeLock) {
+            journal(journal -> journal.appendSet(setName, variables));
+            VariableSet previous = instance.variableSets.get(setName);
+            swap(sets -> sets.put(setName, new VariableSet(setName, instance.version.incrementAndGet(), variables, getSettings(setName))));
+            compactJournal();
+            return variablesOf(previous);
+        }
+    }
+
+    /**
+     * Apply a batch of operations to the repository, all of them being published at once as a single new version of the
+     * repository. The operations are applied in order, so later operations see the result of the previous ones.
+     * 
+     * @param operations the operations to apply
+     */
+    public static void apply(List<VariableOperation> operations) {
+        synchronized (instance.writeLock) {
+            journal(journal -> journal.appendBatch(operations));
+            long version = instance.version.incrementAndGet();
+            // the keys written in each set only patched, null for the sets written entirely
+            Map<String, Set<String>> written = new HashMap<>();
+            swap(sets -> operations.forEach(operation -> {
+                String setName = operation.getSet();
+                VariableSet current = sets.get(setName);
+                switch (operation.getOp()) {
+                case VariableOperation.SET:
+                    sets.put(setName, new VariableSet(setName, version, operation.getVariables(), getSettings(setName)));
+                    written.put(setName, null);
+                    break;
+                case VariableOperation.PATCH:
+                    VariableSet base = current != null ? current : new VariableSet(setName, version, Collections.emptyMap(), getSettings(setName));
+                    Map<String,Object> changes = VariableSet.changes(base.getVariables(), operation.getPatch());
+                    sets.put(setName, base.patch(version, changes));
+                    if (!written.containsKey(setName)) {
+                        written.put(setName, new HashSet<>());
+                    }
+                    if (written.get(setName) != null) {
+                        written.get(setName).addAll(changes.keySet());
+                    }
+                    break;
+                default:
+                    sets.remove(setName);
+                    instance.settings.remove(setName);
+                    written.put(setName, null);
+                }
+            }), written);
+            compactJournal();
+        }
+    }
+
+    /**
+     * Create or replace a single variable of a set, creating the set if it doesn't exist
+     * 
+     * @param setName the variable set name
+     * @param key the variable key
+     * @param value the variable value
+     * @return the previous value of the variable, or null if it didn't exist
+     */
+    public static Object putVariable(String setName, String key, Object value) {
+        Object frozen = VariableSet.freezeValue(value);
+        Object[] previous = new Object[1];
+        update(setName, journal -> journal.appendPut(setName, key, frozen), variables -> {
+            previous[0] = variables.get(key);
+            return Collections.singletonMap(key, frozen);
+        });
+        return previous[0];
+    }
+
+    /**
+     * Remove a single variable of a set
+     * 
+     * @param setName the variable set name
+     * @param key the variable key
+     * @return the removed value, or null if the variable didn't exist
+     */
+    public static Object removeVariable(String setName, String key) {
+        synchronized (instance.writeLock) {
+            Map<String,Object> variables = getVariableSet(setName);
+            if (variables == null || !variables.containsKey(key)) {
+                return null;
+            }
+            Object previous = variables.get(key);
+            patchVariableSet(setName, Collections.singletonMap(key, null));
+            return previous;
+        }
+    }
+
+    /**
+     * Atomically add to an integer variable, creating the variable (and the set) if it doesn't exist
+     * 
+     * @param setName the variable set name
+     * @param key the variable key
+     * @param delta the value to add, which may be negative
+     * @return the new value of the variable
+     * @throws IllegalArgumentException if the variable is not a number
+     * @throws ArithmeticException if the new value overflows a long
+     */
+    public static long incrementVariable(String setName, String key, long delta) {
+        synchronized (instance.writeLock) {
+            Object current = getVariable(setName, key);
+            if (current != null && !(current instanceof Number)) {
+                throw new IllegalArgumentException("Variable \"" + key + "\" of set \"" + setName + "\" is not a number");
+            }
+            long value = Math.addExact(current == null ? 0L : ((Number) current).longValue(), delta);
+            // stored as the json parser would read it back, so that journal replays restore equal values
+            putVariable(setName, key, value == (int) value ? (Number) Integer.valueOf((int) value) : Long.valueOf(value));
+            return value;
+        }
+    }
+
+    /**
+     * Atomically replace a variable, only if it still has the expected value. Numbers are compared by value, whatever
+     * their type.
+     * 
+     * @param setName the variable set name
+     * @param key the variable key
+     * @param expected the expected current value, null if the variable is expected not to exist
+     * @param value the new value, null to remove the variable
+     * @return true if the variable had the expected value and was replaced
+     */
+    public static boolean compareAndSetVariable(String setName, String key, Object expected, Object value) {
+        synchronized (instance.writeLock) {
+            if (!sameValue(getVariable(setName, key), expected)) {
+                return false;
+            }
+            if (value == null) {
+                removeVariable(setName, key);
+            } else {
+                putVariable(setName, key, value);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Apply a json merge patch (RFC 7386) to a variable set, creating the set if it doesn't exist. Only the patched
+     * variables are copied, the others are shared with the previous version of the set.
+     * 
+     * @param setName the variable set name
+     * @param patch the merge patch
+     * @return the patched variables of the set
+     */
+    public static Map<String,Object> patchVariableSet(String setName, Map<String,Object> patch) {
+        return update(setName, journal -> journal.appendPatch(setName, patch), variables -> VariableSet.changes(variables, patch));
+    }
+
+    /**
+     * Publish a new version of a variable set derived from its current version by changing some of its keys, which
+     * shares the other keys with the current version (see {@link VariableSet#patch(long, Map)})
+     * 
+     * @param setName the variable set name
+     * @param record the journal record of the change
+     * @param change computes the changes from the current variables (empty if the set doesn't exist): the frozen new
+     *            value of each changed key, null to remove the key
+     * @return the new variables of the set
+     */
+    private static Map<String,Object> update(String setName, JournalUpdate record, Function<Map<String,Object>, Map<String,Object>> change) {
+        synchronized (instance.writeLock) {
+            journal(record);
+            long version = instance.version.incrementAndGet();
+            VariableSet current = instance.variableSets.get(setName);
+            VariableSet base = current != null ? current : new VariableSet(setName, version, Collections.emptyMap(), getSettings(setName));
+            Map<String,Object> changes = change.apply(base.getVariables());
+            VariableSet updated = base.patch(version, changes);
+            swap(sets -> sets.put(setName, updated), Collections.singletonMap(setName, changes.keySet()));
+            compactJournal();
+            return updated.getVariables();
+        }
+    }
+
+    /**
+     * Retrieve the settings of a variable set
+     * 
+     * @param setName the variable set name
+     * @return the variable set settings, or the default settings if none were defined
+     */
+    public static VariableSetSettings getSettings(String setName) {
+        return instance.settings.getOrDefault(setName, VariableSetSettings.DEFAULT);
+    }
+
+    /**
+     * Define the settings of a variable set, republishing the set if it already exists. The settings are kept when the
+     * set is updated, until the set is removed.
+     * 
+     * @param setName the variable set name
+     * @param settings the variable set settings
+     */
+    public static void setSettings(String setName, VariableSetSettings settings) {
+        synchronized (instance.writeLock) {
+            journal(journal -> journal.appendSettings(setName, settings));
+            instance.settings.put(setName, settings);
+            VariableSet current = instance.variableSets.get(setName);
+            if (current != null) {
+                // no variable is written again, the eviction only applies the new settings
+                swap(sets -> sets.put(setName, new VariableSet(setName, instance.version.incrementAndGet(), current.getVariables(), settings)),
+                        Collections.singletonMap(setName, Collections.emptySet()));
+            }
+            compactJournal();
         }
     }
 
     public static Map<String,Object> removeVariableSet(String setName) {
-        synchronized(instance.variableSets) { // avoid corrupting the map with concurrent calls
-            return instance.variableSets.remove(setName);
+        synchronized (instance.writeLock) {
+            journal(journal -> journal.appendRemove(setName));
+            instance.settings.remove(setName);
+            VariableSet previous = instance.variableSets.get(setName);
+            if (previous != null) {
+                instance.version.incrementAndGet();
+                swap(sets -> sets.remove(setName));
+            }
+            return variablesOf(previous);
         }
     }
 
@@ -69,8 +427,354 @@ public class FreemarkerVariableRepository {
      * 
      */
     public static void reset() {
-        synchronized(instance.variableSets) { // avoid corrupting the map with concurrent calls
-            instance.variableSets.clear();
+        synchronized (instance.writeLock) {
+            journal(VariableJournal::appendReset);
+            instance.settings.clear();
+            instance.version.incrementAndGet();
+            swap(Map::clear);
+        }
+    }
+
+    /**
+     * Make the repository durable, restoring the variable sets recorded in the journal file and recording every
+     * following update in it. The restored sets replace any set currently in the repository.
+     * 
+     * @param journalFile the journal file, created if it doesn't exist
+     * @param compactionThreshold minimum journal size, in bytes, before it's rewritten with only the current sets
+     * @throws UncheckedIOException if the journal can't be read or opened
+     */
+    public static void enableJournal(Path journalFile, long compactionThreshold) {
+        synchronized (instance.writeLock) {
+            disableJournal();
+            VariableJournal journal = new VariableJournal(journalFile, compactionThreshold);
+            VariableJournal.Contents contents;
+            try {
+                contents = journal.open();
+            } catch (IOException ioe) {
+                throw new UncheckedIOException("Unable to open variable journal " + journalFile, ioe);
+            }
+
+            instance.settings.clear();
+            instance.settings.putAll(contents.getSettings());
+            long version = instance.version.incrementAndGet();
+            // the restored sets replace the current ones in a single version, so readers never see an empty repository
+            swap(sets -> {
+                sets.clear();
+                contents.getVariableSets().forEach((name, variables) ->
+                        sets.put(name, new VariableSet(name, version, VariableSet.freeze(variables), getSettings(name))));
+            });
+            instance.journal = journal;
+        }
+    }
+
+    /**
+     * Load the variable sets kept as json files in a directory, one set per <code>.json</code> file named after the set.
+     * The files are memory mapped (see {@link OffHeapVariables#map(Path)}), and all the sets are published at once.
+     * <p>
+     * The loaded sets are not recorded in the journal, as the files are loaded again on every start: they replace any
+     * restored set with the same name, and are left out of the journal compactions until they're updated.
+     * 
+     * @param directory the directory with the json files
+     * @throws UncheckedIOException if any of the files can't be read or is not a json object
+     */
+    public static void loadVariableSets(Path directory) {
+        Map<String, Map<String,Object>> loaded = new LinkedHashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.json")) {
+            List<Path> sorted = new ArrayList<>();
+            files.forEach(sorted::add);
+            Collections.sort(sorted);
+            for (Path file : sorted) {
+                loaded.put(setNameOf(file), OffHeapVariables.map(file));
+            }
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Unable to load variable sets from " + directory, ioe);
+        }
+
+        synchronized (instance.writeLock) {
+            long version = instance.version.incrementAndGet();
+            swap(sets -> loaded.forEach((name, variables) -> sets.put(name, new VariableSet(name, version, variables, getSettings(name)))));
+        }
+    }
+
+    /**
+     * Load again the variable set of a single json file (see {@link #loadVariableSets(Path)}), replacing the set with the
+     * same name
+     * 
+     * @param file the json file
+     * @throws UncheckedIOException if the file can't be read or is not a json object, in which case the set is unchanged
+     */
+    public static void loadVariableSet(Path file) {
+        String name = setNameOf(file);
+        Map<String, Object> variables;
+        try {
+            variables = OffHeapVariables.map(file);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Unable to load variable set from " + file, ioe);
+        }
+
+        synchronized (instance.writeLock) {
+            long version = instance.version.incrementAndGet();
+            swap(sets -> sets.put(name, new VariableSet(name, version, variables, getSettings(name))));
         }
     }
+
+    /**
+     * Remove the variable set loaded from a json file which no longer exists. The set is only removed if it was not
+     * updated since it was loaded, and its settings are kept.
+     * 
+     * @param file the json file
+     */
+    public static void unloadVariableSet(Path file) {
+        String name = setNameOf(file);
+        synchronized (instance.writeLock) {
+            VariableSet set = instance.variableSets.get(name);
+            if (set != null && VariableSet.isMapped(set.getVariables())
+                    && file.equals(((OffHeapVariables) set.getVariables()).getFile())) {
+                instance.version.incrementAndGet();
+                swap(sets -> sets.remove(name));
+            }
+        }
+    }
+
+    /**
+     * Keep the variable sets loaded from a directory (see {@link #loadVariableSets(Path)}) in sync with its files: each
+     * created or modified file is loaded again, and the set of each deleted file is unloaded. Only the sets of the
+     * changed files are published again. Any previously watched directory is no longer watched.
+     * 
+     * @param directory the directory with the json files
+     * @throws UncheckedIOException if the directory can't be watched
+     */
+    public static void watchVariableSets(Path directory) {
+        synchronized (instance.writeLock) {
+            unwatchVariableSets();
+            try {
+                instance.watcher = new FileWatcher(directory, false, FreemarkerVariableRepository::reloadVariableSet);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException("Unable to watch variable sets in " + directory, ioe);
+            }
+        }
+    }
+
+    /**
+     * Stop watching the directory of variable sets, if any. The loaded sets are kept in the repository.
+     */
+    public static void unwatchVariableSets() {
+        synchronized (instance.writeLock) {
+            if (instance.watcher != null) {
+                try {
+                    instance.watcher.close();
+                } catch (IOException ioe) {
+                    LocalNotifier.notifier().error("Unable to stop watching variable sets", ioe);
+                }
+                instance.watcher = null;
+            }
+        }
+    }
+
+    /**
+     * Load or unload the variable set of a changed file of the watched directory
+     * 
+     * @param file the changed file, or null if any of the files may have changed
+     */
+    private static void reloadVariableSet(Path file) {
+        if (file == null) {
+            // events were lost, only the existing files can be loaded again
+            FileWatcher watcher = instance.watcher;
+            if (watcher != null) {
+                loadVariableSets(watcher.getDirectory());
+            }
+        } else if (!file.getFileName().toString().endsWith(".json")) {
+            return;
+        } else if (Files.isRegularFile(file)) {
+            loadVariableSet(file);
+        } else {
+            unloadVariableSet(file);
+        }
+    }
+
+    /**
+     * @param file a variable set json file
+     * @return the name of the variable set kept in the file
+     */
+    private static String setNameOf(Path file) {
+        String fileName = file.getFileName().toString();
+        return fileName.endsWith(".json") ? fileName.substring(0, fileName.length() - ".json".length()) : fileName;
+    }
+
+    /**
+     * Stop recording the updates in the journal, if one is enabled. The variable sets are kept in the repository.
+     */
+    public static void disableJournal() {
+        synchronized (instance.writeLock) {
+            if (instance.journal != null) {
+                try {
+                    instance.journal.close();
+                } catch (IOException ioe) {
+                    LocalNotifier.notifier().error("Unable to close variable journal", ioe);
+                }
+                instance.journal = null;
+            }
+        }
+    }
+
+    /**
+     * Retrieve the eviction counters of a variable set
+     * 
+     * @param setName the variable set name
+     * @return the number of variables of the set that expired and that were evicted because the set was full, or null
+     *         if the set doesn't exist or has no eviction policy
+     */
+    public static Map<String,Long> getEvictionCounters(String setName) {
+        synchronized (instance.writeLock) {
+            return instance.eviction.getCounters(setName);
+        }
+    }
+
+    /**
+     * Publish a new version of the repository, waking up anyone waiting for it. Must be called holding the write lock,
+     * after taking the new version.
+     * <p>
+     * The variables evicted by the set policies are removed from the new version, and recorded in the journal after the
+     * change itself.
+     * 
+     * @param change the change to apply to a copy of the current variable sets, writing the changed sets entirely
+     */
+    private static void swap(Consumer<Map<String, VariableSet>> change) {
+        swap(change, Collections.emptyMap());
+    }
+
+    /**
+     * Publish a new version of the repository (see {@link #swap(Consumer)}), in which some sets are only changed key by
+     * key
+     * 
+     * @param change the change to apply to a copy of the current variable sets
+     * @param written the keys written in each set changed key by key, the other changed sets being written entirely
+     */
+    private static void swap(Consumer<Map<String, VariableSet>> change, Map<String, ? extends Collection<String>> written) {
+        Map<String, VariableSet> sets = new LinkedHashMap<>(instance.variableSets);
+        change.accept(sets);
+        instance.eviction.track(instance.variableSets, sets, written, System.currentTimeMillis()).forEach((setName, patch) -> {
+            try {
+                journal(journal -> journal.appendPatch(setName, patch));
+            } catch (UncheckedIOException uioe) {
+                // the change itself is already recorded, so the eviction is only lost on restart
+                LocalNotifier.notifier().error("Unable to record variable eviction in journal", uioe);
+            }
+            sets.put(setName, sets.get(setName).patch(instance.version.get(), patch));
+        });
+        if (instance.sweeper == null && instance.eviction.isExpiring()) {
+            instance.sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "freemarker-variable-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            instance.sweeper.scheduleWithFixedDelay(FreemarkerVariableRepository::expireVariables, 1, 1, TimeUnit.SECONDS);
+        }
+        instance.variableSets = Collections.unmodifiableMap(sets);
+        instance.publishedVersion = instance.version.get();
+        instance.writeLock.notifyAll();
+    }
+
+    /**
+     * Evict the expired variables, publishing a new version of the repository if any expired
+     */
+    private static void expireVariables() {
+        try {
+            synchronized (instance.writeLock) {
+                if (instance.eviction.hasExpired(System.currentTimeMillis())) {
+                    instance.version.incrementAndGet();
+                    swap(sets -> { });
+                    compactJournal();
+                }
+            }
+        } catch (RuntimeException re) {
+            // keep sweeping on later runs
+            LocalNotifier.notifier().error("Unable to evict expired variables", re);
+        }
+    }
+
+    /**
+     * Record an update in the journal, if enabled. Must be called holding the write lock.
+     * 
+     * @param update the journal update
+     * @throws UncheckedIOException if the update can't be recorded, in which case it must not be published
+     */
+    private static void journal(JournalUpdate update) {
+        if (instance.journal != null) {
+            try {
+                update.apply(instance.journal);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException("Unable to record variable update in journal", ioe);
+            }
+        }
+    }
+
+    /**
+     * Compact the journal, if enabled and large enough. Must be called holding the write lock. A failed compaction
+     * leaves the journal as it was, so it's only reported.
+     */
+    private static void compactJournal() {
+        if (instance.journal != null && instance.journal.needsCompaction()) {
+            try {
+                Map<String,Map<String,Object>> variables = new LinkedHashMap<>();
+                instance.variableSets.forEach((name, set) -> {
+                    // sets still mapped from their files are loaded from them on the next start
+                    if (!VariableSet.isMapped(set.getVariables())) {
+                        variables.put(name, set.getVariables());
+                    }
+                });
+                instance.journal.compact(variables, instance.settings);
+            } catch (IOException ioe) {
+                LocalNotifier.notifier().error("Unable to compact variable journal", ioe);
+            }
+        }
+    }
+
+    /**
+     * An update recorded in the journal
+     */
+    @FunctionalInterface
+    private interface JournalUpdate {
+
+        /**
+         * @param journal the journal to record the update into
+         * @throws IOException if the update can't be recorded
+         */
+        void apply(VariableJournal journal) throws IOException;
+    }
+
+    /**
+     * @param setName the variable set name
+     * @param key the variable key
+     * @return the current value of the variable, or null if the variable or the set don't exist
+     */
+    private static Object getVariable(String setName, String key) {
+        Map<String,Object> variables = getVariableSet(setName);
+        return variables == null ? null : variables.get(key);
+    }
+
+    /**
+     * @param current the current value of a variable
+     * @param expected the expected value
+     * @return true if both values are equal, or are numbers with the same value
+     */
+    private static boolean sameValue(Object current, Object expected) {
+        if (current instanceof Number && expected instanceof Number) {
+            try {
+                return new BigDecimal(current.toString()).compareTo(new BigDecimal(expected.toString())) == 0;
+            } catch (NumberFormatException nfe) {
+                // not a number or infinite
+                return current.toString().equals(expected.toString());
+            }
+        }
+        return Objects.equals(current, expected);
+    }
+
+    /**
+     * @param variableSet a variable set snapshot, may be null
+     * @return the snapshot variables or null if there's no snapshot
+     */
+    private static Map<String,Object> variablesOf(VariableSet variableSet) {
+        return variableSet == null ? null : variableSet.getVariables();
+    }
 }
@@ -18,13 +18,24 @@
  */
 package com.mindprogeny.wiremock.extension.freemarker;
 
+import java.nio.file.Paths;
+
 import com.github.tomakehurst.wiremock.admin.Router;
 import com.github.tomakehurst.wiremock.extension.AdminApiExtension;
+import com.mindprogeny.wiremock.extension.freemarker.extension.variable.task.ApplyVariableOperations;
 import com.mindprogeny.wiremock.extension.freemarker.extension.variable.task.ClearVariables;
+import com.mindprogeny.wiremock.extension.freemarker.extension.variable.task.GetVariable;
 import com.mindprogeny.wiremock.extension.freemarker.extension.variable.task.GetVariableSet;
+import com.mindprogeny.wiremock.extension.freemarker.extension.variable.task.GetVariableSetEvictions;
+import com.mindprogeny.wiremock.extension.freemarker.extension.variable.task.GetVariableSetSettings;
 import com.mindprogeny.wiremock.extension.freemarker.extension.variable.task.GetVariableSets;
+import com.mindprogeny.wiremock.extension.freemarker.extension.variable.task.ImportVariableSet;
+import com.mindprogeny.wiremock.extension.freemarker.extension.variable.task.PatchVariableSet;
+import com.mindprogeny.wiremock.extension.freemarker.extension.variable.task.PutVariable;
+import com.mindprogeny.wiremock.extension.freemarker.extension.variable.task.RemoveVariable;
 import com.mindprogeny.wiremock.extension.freemarker.extension.variable.task.RemoveVariableSet;
 import com.mindprogeny.wiremock.extension.freemarker.extension.variable.task.SetVariableSet;
+import com.mindprogeny.wiremock.extension.freemarker.extension.variable.task.SetVariableSetSettings;
 import com.mindprogeny.wiremock.extension.freemarker.extension.variable.task.SetVariableSets;
 
 import static com.github.tomakehurst.wiremock.http.RequestMethod.*;
@@ -36,6 +47,75 @@ import static com.github.tomakehurst.wiremock.http.RequestMethod.*;
  */
 public class FreemarkerVariableRepositoryManager implements AdminApiExtension {
 
+    /**
+     * System property with the variable journal file, the repository is only durable if defined
+     */
+    public static final String JOURNAL_PROPERTY = "freemarker.variables.journal";
+
+    /**
+     * System property with the minimum journal size, in bytes, before it's compacted
+     */
+    public static final String JOURNAL_COMPACTION_PROPERTY = "freemarker.variables.journal.compaction";
+
+    /**
+     * Default minimum journal size before it's compacted
+     */
+    public static final long DEFAULT_JOURNAL_COMPACTION = 64L * 1024 * 1024;
+
+    /**
+     * System property with the directory of json files to load as variable sets at startup (usually
+     * <code>__files/variables</code>)
+     */
+    public static final String DIRECTORY_PROPERTY = "freemarker.variables.directory";
+
+    /**
+     * Manager of a repository made durable by the {@value #JOURNAL_PROPERTY} system property, and loaded from the
+     * {@value #DIRECTORY_PROPERTY} directory, if defined
+     */
+    public FreemarkerVariableRepositoryManager() {
+        this(System.getProperty(JOURNAL_PROPERTY), Long.getLong(JOURNAL_COMPACTION_PROPERTY, DEFAULT_JOURNAL_COMPACTION),
+                System.getProperty(DIRECTORY_PROPERTY));
+    }
+
+    /**
+     * Manager of a repository made durable by a journal
+     * 
+     * @param journalFile the journal file, restored if it exists
+     */
+    public FreemarkerVariableRepositoryManager(String journalFile) {
+        this(journalFile, DEFAULT_JOURNAL_COMPACTION);
+    }
+
+    /**
+     * Manager of a repository made durable by a journal
+     * 
+     * @param journalFile the journal file, restored if it exists
+     * @param compactionThreshold minimum journal size, in bytes, before it's compacted
+     */
+    public FreemarkerVariableRepositoryManager(String journalFile, long compactionThreshold) {
+        FreemarkerVariableRepository.enableJournal(Paths.get(journalFile), compactionThreshold);
+    }
+
+    /**
+     * Manager of a repository loaded from a directory of json files (see
+     * {@link FreemarkerVariableRepository#loadVariableSets(java.nio.file.Path)}) and kept in sync with it (see
+     * {@link FreemarkerVariableRepository#watchVariableSets(java.nio.file.Path)}), and optionally made durable by a
+     * journal. The journal is restored first, so the files replace any restored set with the same name.
+     * 
+     * @param journalFile the journal file, restored if it exists, or null if the repository is not durable
+     * @param compactionThreshold minimum journal size, in bytes, before it's compacted
+     * @param variablesDirectory the directory of json files, or null if none are loaded
+     */
+    public FreemarkerVariableRepositoryManager(String journalFile, long compactionThreshold, String variablesDirectory) {
+        if (journalFile != null && !journalFile.isEmpty()) {
+            FreemarkerVariableRepository.enableJournal(Paths.get(journalFile), compactionThreshold);
+        }
+        if (variablesDirectory != null && !variablesDirectory.isEmpty()) {
+            FreemarkerVariableRepository.loadVariableSets(Paths.get(variablesDirectory));
+            FreemarkerVariableRepository.watchVariableSets(Paths.get(variablesDirectory));
+        }
+    }
+
     /**
      * @see com.github.tomakehurst.wiremock.extension.Extension#getName()
      */
@@ -54,7 +134,16 @@ public class FreemarkerVariableRepositoryManager implements AdminApiExtension {
         router.add(GET, "/variables", GetVariableSets.class);
         router.add(GET, "/variables/{set}", GetVariableSet.class);
         router.add(POST, "/variables", SetVariableSets.class);
+        router.add(POST, "/variable-batch", ApplyVariableOperations.class);
         router.add(POST, "/variables/{set}", SetVariableSet.class);
+        router.add(GET, "/variable-settings/{set}", GetVariableSetSettings.class);
+        router.add(POST, "/variable-settings/{set}", SetVariableSetSettings.class);
+        router.add(GET, "/variable-evictions/{set}", GetVariableSetEvictions.class);
+        router.add(POST, "/variables/{set}/bulk", ImportVariableSet.class);
+        router.add(PATCH, "/variables/{set}", PatchVariableSet.class);
+        router.add(GET, "/variable-keys/{set}/{key}", GetVariable.class);
+        router.add(PUT, "/variable-keys/{set}/{key}", PutVariable.class);
+        router.add(DELETE, "/variable-keys/{set}/{key}", RemoveVariable.class);
     }
 
 
@@ -0,0 +1,89 @@
+/*
+ * LibraryTemplateLoader.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+
+import freemarker.cache.FileTemplateLoader;
+import freemarker.cache.TemplateLoader;
+
+/**
+ * Freemarker Template loader of the template libraries kept in the stub files (<code>__files</code>), which stub
+ * templates can include or import (<code>&lt;#import "/libs/macros.ftl" as m&gt;</code>). Each library is compiled
+ * once and shared by all the stubs using it.
+ * <p>
+ * The stub files directory is only known once the first stub is transformed, so no library is found until it's set.
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public class LibraryTemplateLoader implements TemplateLoader {
+
+    /**
+     * Loader of the stub files directory, or null if not known yet
+     */
+    private volatile FileTemplateLoader files;
+
+    /**
+     * Set the stub files directory
+     * 
+     * @param directory the stub files directory
+     * @throws IOException if the directory can't be read
+     */
+    public void setDirectory(File directory) throws IOException {
+        files = new FileTemplateLoader(directory);
+    }
+
+    /**
+     * @see freemarker.cache.TemplateLoader#findTemplateSource(java.lang.String)
+     */
+    @Override
+    public Object findTemplateSource(String name) throws IOException {
+        FileTemplateLoader loader = files;
+        return loader == null ? null : loader.findTemplateSource(name);
+    }
+
+    /**
+     * @see freemarker.cache.TemplateLoader#getLastModified(java.lang.Object)
+     */
+    @Override
+    public long getLastModified(Object templateSource) {
+        return files.getLastModified(templateSource);
+    }
+
+    /**
+     * @see freemarker.cache.TemplateLoader#getReader(java.lang.Object, java.lang.String)
+     */
+    @Override
+    public Reader getReader(Object templateSource, String encoding) throws IOException {
+        return files.getReader(templateSource, encoding);
+    }
+
+    /**
+     * @see freemarker.cache.TemplateLoader#closeTemplateSource(java.lang.Object)
+     */
+    @Override
+    public void closeTemplateSource(Object templateSource) throws IOException {
+        files.closeTemplateSource(templateSource);
+    }
+
+}
@@ -26,6 +26,10 @@ import freemarker.cache.TemplateLoader;
 
 /**
  * Freemarker Template loader to support caching from runtime templates
+ * <p>
+ * Only the name given to the template of the current thread is resolved, so that any other name (the libraries
+ * included or imported by the template) can be resolved by the following loaders of a
+ * {@link freemarker.cache.MultiTemplateLoader}.
  * 
  * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
  * @since 14 Mar 2018
@@ -38,12 +42,17 @@ public class LocalThreadTemplateLoader implements TemplateLoader {
 	 */
     private ThreadLocal<String> localTemplate = new ThreadLocal<>();
 
+    /**
+     * The name of the stub template stored at the thread scope
+     */
+    private ThreadLocal<String> localTemplateName = new ThreadLocal<>();
+
     /**
      * @see freemarker.cache.TemplateLoader#findTemplateSource(java.lang.String)
      */
     @Override
     public Object findTemplateSource(String name) throws IOException {
-        return localTemplate.get();
+        return name.equals(localTemplateName.get()) ? localTemplate.get() : null;
     }
 
     /**
@@ -73,9 +82,11 @@ public class LocalThreadTemplateLoader implements TemplateLoader {
 
     /**
      * Set the local thread template to load if required
+     * @param name the name the template is requested with, a digest of the template
      * @param template the template to store in the thread
      */
-    public void setLocalTemplate(String template) {
+    public void setLocalTemplate(String name, String template) {
+        localTemplateName.set(name);
         localTemplate.set(template);
     }
 
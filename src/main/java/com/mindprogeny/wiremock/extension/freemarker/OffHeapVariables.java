@@ -0,0 +1,550 @@
+/*
+ * OffHeapVariables.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+/**
+ * Unmodifiable variable map whose values are stored serialized outside of the heap.
+ * <p>
+ * Each top level value is serialized as json into direct byte buffer segments, and the map only keeps on the heap a
+ * compact index of the keys (a sorted key array and the position of each value). Values are only deserialized when
+ * they're looked up, and the most recently deserialized ones are cached (in a {@link BoundedCache}, so that reads never
+ * lock), so the live heap is proportional to the hot keys rather than to the whole set.
+ * <p>
+ * Sets kept as json files can also be memory mapped (see {@link #map(Path)}): the file is only scanned once to index its
+ * top level keys, and the values are then parsed from the mapped file as they're read, so neither the heap nor the
+ * direct memory hold a copy of the file. What's mapped is a private copy of the file, so that the file can be edited
+ * or truncated while its variables are in use.
+ * <p>
+ * As values go through json, anything that isn't a json type (only possible when sets are created through the java api)
+ * comes back as its json representation.
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public class OffHeapVariables extends AbstractMap<String, Object> {
+
+    /**
+     * Size of the byte buffer segments, values larger than this get a segment of their own
+     */
+    private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Number of deserialized values kept in the cache
+     */
+    private static final int CACHE_SIZE = 1024;
+
+    /**
+     * Cached value of the keys whose value is a json null
+     */
+    private static final Object NULL = new Object();
+
+    /**
+     * Size of the windows in which files are mapped, values larger than this get a window of their own
+     */
+    private static final long MAPPED_WINDOW = 1024L * 1024 * 1024;
+
+    /**
+     * Size up to which files are read onto the heap rather than copied and mapped
+     */
+    private static final long MAPPED_MIN_SIZE = 1024 * 1024;
+
+    /**
+     * The keys, sorted
+     */
+    private final String[] keys;
+
+    /**
+     * The position of each sorted key in the original map, to iterate in the original order
+     */
+    private final int[] order;
+
+    /**
+     * The segment of the value of each sorted key
+     */
+    private final int[] segments;
+
+    /**
+     * The offset of the value of each sorted key in its segment
+     */
+    private final int[] offsets;
+
+    /**
+     * The serialized length of the value of each sorted key
+     */
+    private final int[] lengths;
+
+    /**
+     * The byte buffer segments
+     */
+    private final ByteBuffer[] buffers;
+
+    /**
+     * The mapped json file, or null if the values were serialized by this map
+     */
+    private final Path file;
+
+    /**
+     * The most recently deserialized values by key, {@link #NULL} for json nulls
+     */
+    private final BoundedCache<String, Object> cache = new BoundedCache<>(CACHE_SIZE);
+
+    /**
+     * The entry set, iterating in the original order
+     */
+    private final Set<Map.Entry<String, Object>> entrySet = new EntrySet();
+
+    /**
+     * Serialize a set of variables outside of the heap
+     *
+     * @param variables the variables
+     * @throws UncheckedIOException if any of the values can't be serialized
+     */
+    public OffHeapVariables(Map<String, Object> variables) {
+        this(variables, key -> null);
+    }
+
+    /**
+     * Serialize a set of variables outside of the heap, reusing the values that are already serialized
+     *
+     * @param variables the variables
+     * @param serialized the already serialized value of a key, or null if the value must be serialized
+     * @throws UncheckedIOException if any of the values can't be serialized
+     */
+    private OffHeapVariables(Map<String, Object> variables, Function<String, ByteBuffer> serialized) {
+        int size = variables.size();
+        keys = variables.keySet().toArray(new String[size]);
+        Integer[] sorted = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, (left, right) -> keys[left].compareTo(keys[right]));
+
+        order = new int[size];
+        segments = new int[size];
+        offsets = new int[size];
+        lengths = new int[size];
+        ByteBuffer[] values = new ByteBuffer[size];
+        int position = 0;
+        for (Map.Entry<String, Object> entry : variables.entrySet()) {
+            // the value is only read from the entry when it must be serialized
+            ByteBuffer value = serialized.apply(entry.getKey());
+            values[position++] = value != null ? value : ByteBuffer.wrap(serialize(entry.getValue()));
+        }
+
+        // lay out the values in sorted key order, so that the index arrays line up with the sorted keys
+        List<ByteBuffer> buffers = new ArrayList<>();
+        ByteBuffer segment = null;
+        String[] originalKeys = keys.clone();
+        for (int i = 0; i < size; i++) {
+            int original = sorted[i];
+            ByteBuffer value = values[original];
+            int length = value.remaining();
+            if (segment == null || segment.remaining() < length) {
+                segment = ByteBuffer.allocateDirect(Math.max(SEGMENT_SIZE, length));
+                buffers.add(segment);
+            }
+            keys[i] = originalKeys[original];
+            order[original] = i;
+            segments[i] = buffers.size() - 1;
+            offsets[i] = segment.position();
+            lengths[i] = length;
+            segment.put(value);
+            values[original] = null;
+        }
+
+        // only keep the used part of the last segment
+        if (segment != null && segment.position() < segment.capacity()) {
+            ByteBuffer last = ByteBuffer.allocateDirect(segment.position());
+            segment.flip();
+            last.put(segment);
+            buffers.set(buffers.size() - 1, last);
+        }
+        this.buffers = buffers.toArray(new ByteBuffer[buffers.size()]);
+        this.file = null;
+    }
+
+    /**
+     * @param keys the keys, sorted
+     * @param order the position of each sorted key in the original map
+     * @param segments the segment of the value of each sorted key
+     * @param offsets the offset of the value of each sorted key in its segment
+     * @param lengths the serialized length of the value of each sorted key
+     * @param buffers the byte buffer segments
+     * @param file the mapped json file
+     */
+    private OffHeapVariables(String[] keys, int[] order, int[] segments, int[] offsets, int[] lengths, ByteBuffer[] buffers, Path file) {
+        this.keys = keys;
+        this.order = order;
+        this.segments = segments;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.buffers = buffers;
+        this.file = file;
+    }
+
+    /**
+     * Memory map a json file holding a set of variables (a json object). Only the position of the value of each top
+     * level key is kept from the initial scan of the file.
+     * <p>
+     * The file is first copied to a temporary file, which is mapped and then deleted, so later edits of the file (even
+     * in place) never reach the mapped values. Small files are read onto the heap instead.
+     *
+     * @param file the json file
+     * @return the variables of the file
+     * @throws IOException if the file can't be read or is not a json object
+     */
+    public static OffHeapVariables map(Path file) throws IOException {
+        if (Files.size(file) <= MAPPED_MIN_SIZE) {
+            byte[] content = Files.readAllBytes(file);
+            return index(file, new ByteArrayInputStream(content),
+                    (start, size) -> ByteBuffer.wrap(content, (int) start, (int) size).slice().asReadOnlyBuffer(), content.length);
+        }
+
+        Path copy = Files.createTempFile("freemarker-variables-", ".json");
+        try {
+            Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+            try (FileChannel channel = FileChannel.open(copy, StandardOpenOption.READ);
+                 InputStream content = new BufferedInputStream(Files.newInputStream(copy))) {
+                return index(file, content, (start, size) -> channel.map(FileChannel.MapMode.READ_ONLY, start, size), channel.size());
+            }
+        } finally {
+            try {
+                // the mappings outlive the file where the platform allows it
+                Files.delete(copy);
+            } catch (IOException ioe) {
+                copy.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * A window of a json file
+     */
+    @FunctionalInterface
+    private interface Window {
+
+        /**
+         * @param start the window start in the file
+         * @param size the window size
+         * @return the window content
+         * @throws IOException if the window can't be read
+         */
+        ByteBuffer map(long start, long size) throws IOException;
+    }
+
+    /**
+     * Index a json file holding a set of variables
+     *
+     * @param file the json file
+     * @param content the file content
+     * @param window maps a window of the file content
+     * @param length the file length
+     * @return the variables of the file
+     * @throws IOException if the file can't be read or is not a json object
+     */
+    private static OffHeapVariables index(Path file, InputStream content, Window window, long length) throws IOException {
+        // a single streaming pass, skipping the values; later duplicates replace the earlier values like the json parser
+        Map<String, long[]> spans = new LinkedHashMap<>();
+        try (JsonParser parser = VariableCodec.parser(content)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a json object in " + file);
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String key = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                long start = parser.getTokenLocation().getByteOffset();
+                if (value.isStructStart()) {
+                    parser.skipChildren();
+                } else if (value == JsonToken.VALUE_STRING) {
+                    // strings are only read up to their end when their text is requested
+                    parser.getText();
+                }
+                spans.put(key, new long[] { start, parser.getCurrentLocation().getByteOffset() });
+            }
+        }
+
+        int size = spans.size();
+        String[] originalKeys = spans.keySet().toArray(new String[size]);
+        long[][] originalSpans = spans.values().toArray(new long[size][]);
+        Integer[] byPosition = new Integer[size];
+        Integer[] sorted = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            byPosition[i] = i;
+            sorted[i] = i;
+        }
+        Arrays.sort(byPosition, (left, right) -> Long.compare(originalSpans[left][0], originalSpans[right][0]));
+        Arrays.sort(sorted, (left, right) -> originalKeys[left].compareTo(originalKeys[right]));
+
+        // map the file in windows, each value falling entirely in one of them
+        int[] originalSegments = new int[size];
+        int[] originalOffsets = new int[size];
+        List<ByteBuffer> buffers = new ArrayList<>();
+        long windowStart = 0;
+        long windowEnd = 0;
+        for (int original : byPosition) {
+            long start = originalSpans[original][0];
+            long end = originalSpans[original][1];
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IOException("Variable \"" + originalKeys[original] + "\" of " + file + " is too large to be mapped");
+            }
+            if (buffers.isEmpty() || end > windowEnd) {
+                windowStart = start;
+                windowEnd = Math.min(length, start + Math.max(MAPPED_WINDOW, end - start));
+                buffers.add(window.map(windowStart, windowEnd - windowStart));
+            }
+            originalSegments[original] = buffers.size() - 1;
+            originalOffsets[original] = (int) (start - windowStart);
+        }
+
+        String[] keys = new String[size];
+        int[] order = new int[size];
+        int[] segments = new int[size];
+        int[] offsets = new int[size];
+        int[] lengths = new int[size];
+        for (int i = 0; i < size; i++) {
+            int original = sorted[i];
+            keys[i] = originalKeys[original];
+            order[original] = i;
+            segments[i] = originalSegments[original];
+            offsets[i] = originalOffsets[original];
+            lengths[i] = (int) (originalSpans[original][1] - originalSpans[original][0]);
+        }
+        return new OffHeapVariables(keys, order, segments, offsets, lengths, buffers.toArray(new ByteBuffer[buffers.size()]), file);
+    }
+
+    /**
+     * Serialize a patched version of these variables in new segments, copying the serialized values of the keys that
+     * were not changed rather than deserializing and serializing them again
+     *
+     * @param patched the patched variables, stored as this map
+     * @return the patched variables outside of the heap
+     * @throws UncheckedIOException if any of the changed values can't be serialized
+     */
+    OffHeapVariables rewrite(PatchedVariables patched) {
+        return new OffHeapVariables(patched, key -> patched.isChanged(key) ? null : serialized(indexOf(key)));
+    }
+
+    /**
+     * Give a value the form it would have once stored outside of the heap
+     *
+     * @param value a variable value
+     * @return the value as it would be deserialized
+     * @throws UncheckedIOException if the value can't be serialized
+     */
+    static Object normalize(Object value) {
+        try {
+            return VariableSet.freezeValue(VariableCodec.valueReader().readValue(serialize(value)));
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Unable to deserialize variable value", ioe);
+        }
+    }
+
+    /**
+     * @param value a variable value
+     * @return the value as json
+     * @throws UncheckedIOException if the value can't be serialized
+     */
+    private static byte[] serialize(Object value) {
+        try {
+            return VariableCodec.writer().writeValueAsBytes(value);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Unable to serialize variable value", ioe);
+        }
+    }
+
+    /**
+     * @return the mapped json file, or null if the variables are not mapped from a file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @see java.util.AbstractMap#get(java.lang.Object)
+     */
+    @Override
+    public Object get(Object key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        Object value = cache.get(keys[index]);
+        if (value == null) {
+            value = valueAt(index);
+            cache.put(keys[index], value == null ? NULL : value);
+        }
+        return value == NULL ? null : value;
+    }
+
+    /**
+     * @see java.util.AbstractMap#containsKey(java.lang.Object)
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @see java.util.AbstractMap#size()
+     */
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * @see java.util.AbstractMap#entrySet()
+     */
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return entrySet;
+    }
+
+    /**
+     * Find a key in the index
+     *
+     * @param key the key
+     * @return the position of the key in the sorted keys, or a negative value if it's not in the map
+     */
+    private int indexOf(Object key) {
+        return key instanceof String ? Arrays.binarySearch(keys, key) : -1;
+    }
+
+    /**
+     * Deserialize a value, bypassing the cache
+     *
+     * @param index the position of the value key in the sorted keys
+     * @return the unmodifiable value
+     */
+    private Object valueAt(int index) {
+        try {
+            return VariableSet.freezeValue(VariableCodec.valueReader().readValue(new ByteBufferBackedInputStream(serialized(index))));
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Unable to deserialize variable value", ioe);
+        }
+    }
+
+    /**
+     * @param index the position of a value key in the sorted keys
+     * @return the serialized value, in its own buffer view
+     */
+    private ByteBuffer serialized(int index) {
+        ByteBuffer value = buffers[segments[index]].duplicate();
+        value.position(offsets[index]);
+        value.limit(offsets[index] + lengths[index]);
+        return value;
+    }
+
+    /**
+     * Entries in the original order of the map, deserializing each value when it's read
+     */
+    private class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+
+        /**
+         * @see java.util.AbstractCollection#iterator()
+         */
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            return new Iterator<Map.Entry<String, Object>>() {
+
+                private int position;
+
+                @Override
+                public boolean hasNext() {
+                    return position < order.length;
+                }
+
+                @Override
+                public Map.Entry<String, Object> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    String key = keys[order[position++]];
+                    // the value is only deserialized if it's read, so that iterating over the keys stays cheap
+                    return new Map.Entry<String, Object>() {
+
+                        @Override
+                        public String getKey() {
+                            return key;
+                        }
+
+                        @Override
+                        public Object getValue() {
+                            return get(key);
+                        }
+
+                        @Override
+                        public Object setValue(Object value) {
+                            throw new UnsupportedOperationException();
+                        }
+
+                        @Override
+                        public boolean equals(Object other) {
+                            return other instanceof Map.Entry && key.equals(((Map.Entry<?, ?>) other).getKey())
+                                    && Objects.equals(getValue(), ((Map.Entry<?, ?>) other).getValue());
+                        }
+
+                        @Override
+                        public int hashCode() {
+                            return key.hashCode() ^ Objects.hashCode(getValue());
+                        }
+                    };
+                }
+            };
+        }
+
+        /**
+         * @see java.util.AbstractCollection#size()
+         */
+        @Override
+        public int size() {
+            return keys.length;
+        }
+    }
+
+}
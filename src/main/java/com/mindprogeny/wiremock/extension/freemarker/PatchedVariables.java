@@ -0,0 +1,281 @@
+/*
+ * PatchedVariables.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Unmodifiable variable map made of variables in a specific storage ({@link OffHeapVariables} or
+ * {@link ColumnarVariables}) and of the changes written to them since, kept on the heap.
+ * <p>
+ * Rewriting the storage for every change of a single key would cost as much as storing the whole set again, so the
+ * changes are kept aside in a {@link PersistentVariables} map until they amount to a fraction of the set (see
+ * {@link #needsCompaction()}), and the storage is then rewritten once with all of them. Iteration follows the order of
+ * a {@link java.util.LinkedHashMap} updated with the same changes.
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+final class PatchedVariables extends AbstractMap<String, Object> {
+
+    /**
+     * Number of changes always kept aside, whatever the size of the stored variables
+     */
+    private static final int MIN_CHANGES = 64;
+
+    /**
+     * Fraction of the size of the stored variables up to which changes are kept aside
+     */
+    private static final int CHANGES_RATIO = 16;
+
+    /**
+     * Change removing a stored key
+     */
+    private static final Object REMOVED = new Object();
+
+    /**
+     * The stored variables
+     */
+    private final Map<String, Object> stored;
+
+    /**
+     * The changed keys in the order they were first changed: their new value, {@link #REMOVED} for removed stored keys,
+     * or a {@link Moved} value for stored keys added again after being removed
+     */
+    private final PersistentVariables changes;
+
+    /**
+     * The number of entries
+     */
+    private final int size;
+
+    /**
+     * The entry set, iterating in the original order followed by the added keys
+     */
+    private final Set<Map.Entry<String, Object>> entrySet = new EntrySet();
+
+    /**
+     * @param stored the stored variables
+     * @param changes the changed keys
+     * @param size the number of entries
+     */
+    private PatchedVariables(Map<String, Object> stored, PersistentVariables changes, int size) {
+        this.stored = stored;
+        this.changes = changes;
+        this.size = size;
+    }
+
+    /**
+     * Create a new version of stored variables with some entries replaced, added or removed
+     *
+     * @param variables the stored variables, or a patched version of them
+     * @param changes the new value of each changed key, null to remove the key
+     * @return the patched variables
+     */
+    static PatchedVariables of(Map<String, Object> variables, Map<String, Object> changes) {
+        PatchedVariables patched = variables instanceof PatchedVariables ? (PatchedVariables) variables
+                : new PatchedVariables(variables, PersistentVariables.EMPTY, variables.size());
+        return patched.with(changes);
+    }
+
+    /**
+     * @param changes the new value of each changed key, null to remove the key
+     * @return the patched variables
+     */
+    private PatchedVariables with(Map<String, Object> changes) {
+        PersistentVariables patched = this.changes;
+        int size = this.size;
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            String key = change.getKey();
+            Object previous = patched.get(key);
+            boolean isStored = stored.containsKey(key);
+            boolean present = previous == null ? isStored : previous != REMOVED;
+            if (change.getValue() == null) {
+                if (present) {
+                    patched = patched.with(Collections.singletonMap(key, isStored ? REMOVED : null));
+                    size--;
+                }
+            } else if (previous == REMOVED) {
+                // a removed key added again comes last, after being dropped from its place in the changes too
+                patched = patched.with(Collections.singletonMap(key, null)).with(Collections.singletonMap(key, new Moved(change.getValue())));
+                size++;
+            } else {
+                patched = patched.with(Collections.singletonMap(key, previous instanceof Moved ? new Moved(change.getValue()) : change.getValue()));
+                if (!present) {
+                    size++;
+                }
+            }
+        }
+        return new PatchedVariables(stored, patched, size);
+    }
+
+    /**
+     * @return the stored variables, without the changes
+     */
+    Map<String, Object> getStored() {
+        return stored;
+    }
+
+    /**
+     * @param key a key
+     * @return true if the key was changed since the variables were stored
+     */
+    boolean isChanged(String key) {
+        return changes.containsKey(key);
+    }
+
+    /**
+     * @return true if enough changes were kept aside for the stored variables to be rewritten with them
+     */
+    boolean needsCompaction() {
+        return changes.size() > Math.max(MIN_CHANGES, stored.size() / CHANGES_RATIO);
+    }
+
+    /**
+     * @see java.util.AbstractMap#get(java.lang.Object)
+     */
+    @Override
+    public Object get(Object key) {
+        Object change = changes.get(key);
+        if (change == null) {
+            return stored.get(key);
+        }
+        return change == REMOVED ? null : change instanceof Moved ? ((Moved) change).value : change;
+    }
+
+    /**
+     * @see java.util.AbstractMap#containsKey(java.lang.Object)
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        Object change = changes.get(key);
+        return change == null ? stored.containsKey(key) : change != REMOVED;
+    }
+
+    /**
+     * @see java.util.AbstractMap#size()
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @see java.util.AbstractMap#entrySet()
+     */
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return entrySet;
+    }
+
+    /**
+     * New value of a stored key added again after being removed, which comes after the stored keys
+     */
+    private static final class Moved {
+
+        /**
+         * The new value
+         */
+        private final Object value;
+
+        /**
+         * @param value the new value
+         */
+        private Moved(Object value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * The stored entries still in place, then the added ones in the order they were added
+     */
+    private class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+
+        /**
+         * @see java.util.AbstractCollection#iterator()
+         */
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            return new Iterator<Map.Entry<String, Object>>() {
+
+                private final Iterator<Map.Entry<String, Object>> storedEntries = stored.entrySet().iterator();
+
+                private final Iterator<Map.Entry<String, Object>> changedEntries = changes.entrySet().iterator();
+
+                private Map.Entry<String, Object> next = advance();
+
+                /**
+                 * @return the next entry, or null if there are no more entries
+                 */
+                private Map.Entry<String, Object> advance() {
+                    while (storedEntries.hasNext()) {
+                        // stored values are only read from their own entries, which may deserialize them lazily
+                        Map.Entry<String, Object> entry = storedEntries.next();
+                        Object change = changes.get(entry.getKey());
+                        if (change == null) {
+                            return entry;
+                        } else if (change != REMOVED && !(change instanceof Moved)) {
+                            return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), change);
+                        }
+                    }
+                    while (changedEntries.hasNext()) {
+                        Map.Entry<String, Object> entry = changedEntries.next();
+                        if (entry.getValue() instanceof Moved) {
+                            return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), ((Moved) entry.getValue()).value);
+                        } else if (entry.getValue() != REMOVED && !stored.containsKey(entry.getKey())) {
+                            return entry;
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Map.Entry<String, Object> next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    Map.Entry<String, Object> result = next;
+                    next = advance();
+                    return result;
+                }
+            };
+        }
+
+        /**
+         * @see java.util.AbstractCollection#size()
+         */
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+}
@@ -0,0 +1,640 @@
+/*
+ * PersistentVariables.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Unmodifiable variable map whose new versions share their storage with the previous ones.
+ * <p>
+ * The entries are kept in a hash array mapped trie by key, and in a 32-ary trie by insertion position to iterate in
+ * insertion order like a {@link java.util.LinkedHashMap}. A new version with a few changed entries (see
+ * {@link #with(Map)}) only copies the trie nodes on the path to each changed entry, so updating a key costs a few
+ * small array copies whatever the size of the set, and every untouched entry stays shared with the previous version.
+ * <p>
+ * A removed entry leaves a hole in the insertion order, and the holes are dropped by rebuilding the map once there are
+ * more of them than entries.
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+final class PersistentVariables extends AbstractMap<String, Object> {
+
+    /**
+     * Number of hash or position bits consumed by each level of the tries
+     */
+    private static final int BITS = 5;
+
+    /**
+     * Number of children of a trie node
+     */
+    private static final int WIDTH = 1 << BITS;
+
+    /**
+     * Mask of the bits consumed by a level
+     */
+    private static final int MASK = WIDTH - 1;
+
+    /**
+     * Deepest hash shift, past which entries in the same branch have the same hash
+     */
+    private static final int MAX_SHIFT = 30;
+
+    /**
+     * The empty map
+     */
+    static final PersistentVariables EMPTY = new PersistentVariables(null, 0, null, 0, 0);
+
+    /**
+     * The root of the hash trie: a {@link Node}, an {@link Entry}, a {@link Collision} or null if the map is empty
+     */
+    private final Object root;
+
+    /**
+     * The number of entries
+     */
+    private final int size;
+
+    /**
+     * The root of the insertion order trie, whose leaves hold the entries by position (null for removed ones)
+     */
+    private final Object[] order;
+
+    /**
+     * The shift of the root of the insertion order trie
+     */
+    private final int orderShift;
+
+    /**
+     * The position of the next inserted entry
+     */
+    private final int count;
+
+    /**
+     * The entry set, iterating in insertion order
+     */
+    private final Set<Map.Entry<String, Object>> entrySet = new EntrySet();
+
+    /**
+     * @param root the root of the hash trie
+     * @param size the number of entries
+     * @param order the root of the insertion order trie
+     * @param orderShift the shift of the root of the insertion order trie
+     * @param count the position of the next inserted entry
+     */
+    private PersistentVariables(Object root, int size, Object[] order, int orderShift, int count) {
+        this.root = root;
+        this.size = size;
+        this.order = order;
+        this.orderShift = orderShift;
+        this.count = count;
+    }
+
+    /**
+     * Copy a map, keeping its iteration order
+     *
+     * @param variables the map to copy, whose values must not be null
+     * @return the persistent copy
+     */
+    static PersistentVariables of(Map<String, ?> variables) {
+        return variables instanceof PersistentVariables ? (PersistentVariables) variables : copy(variables);
+    }
+
+    /**
+     * Build a map at once from the entries of another one
+     *
+     * @param variables the map to copy, whose values must not be null
+     * @return the persistent copy
+     */
+    private static PersistentVariables copy(Map<String, ?> variables) {
+        int size = variables.size();
+        if (size == 0) {
+            return EMPTY;
+        }
+
+        Entry[] entries = new Entry[size];
+        int position = 0;
+        for (Map.Entry<String, ?> variable : variables.entrySet()) {
+            entries[position] = new Entry(variable.getKey(), variable.getValue(), position);
+            position++;
+        }
+
+        // the order trie is built bottom up from the entries in order, before they get sorted by hash
+        int orderShift = 0;
+        Object[][] level = new Object[(size + MASK) >>> BITS][];
+        for (int i = 0; i < level.length; i++) {
+            level[i] = Arrays.copyOfRange(entries, i << BITS, (i + 1) << BITS, Object[].class);
+        }
+        while (level.length > 1) {
+            Object[][] parents = new Object[(level.length + MASK) >>> BITS][];
+            for (int i = 0; i < parents.length; i++) {
+                parents[i] = Arrays.copyOfRange(level, i << BITS, (i + 1) << BITS, Object[].class);
+            }
+            level = parents;
+            orderShift += BITS;
+        }
+
+        int[] hashes = new int[size];
+        for (int i = 0; i < size; i++) {
+            hashes[i] = hash(entries[i].getKey());
+        }
+        Object root = build(entries, hashes, 0, size, 0, new Entry[size], new int[size]);
+        return new PersistentVariables(root, size, level[0], orderShift, size);
+    }
+
+    /**
+     * Create a new version of the map with some entries replaced, added or removed. Replaced entries keep their position
+     * in the iteration order, and added entries come last.
+     *
+     * @param changes the new value of each changed key, null to remove the key
+     * @return the new version of the map, sharing the unchanged entries with this one
+     */
+    PersistentVariables with(Map<String, ?> changes) {
+        Object root = this.root;
+        int size = this.size;
+        Object[] order = this.order;
+        int orderShift = this.orderShift;
+        int count = this.count;
+        for (Map.Entry<String, ?> change : changes.entrySet()) {
+            String key = change.getKey();
+            int hash = hash(key);
+            Entry existing = find(root, key, hash);
+            if (change.getValue() == null) {
+                if (existing != null) {
+                    root = remove(root, 0, key, hash);
+                    order = setOrder(order, orderShift, existing.position, null);
+                    size--;
+                }
+                continue;
+            }
+
+            int position = existing == null ? count : existing.position;
+            Entry entry = new Entry(key, change.getValue(), position);
+            root = put(root, 0, entry, hash);
+            if (existing == null) {
+                if (order != null && position == 1L << (orderShift + BITS)) {
+                    Object[] grown = new Object[WIDTH];
+                    grown[0] = order;
+                    order = grown;
+                    orderShift += BITS;
+                }
+                size++;
+                count++;
+            }
+            order = setOrder(order, orderShift, position, entry);
+        }
+
+        PersistentVariables result = new PersistentVariables(root, size, order, orderShift, count);
+        // holes left by removed entries are dropped once they outnumber the entries
+        return count - size > Math.max(WIDTH, size) ? copy(result) : result;
+    }
+
+    /**
+     * @see java.util.AbstractMap#get(java.lang.Object)
+     */
+    @Override
+    public Object get(Object key) {
+        Entry entry = key instanceof String ? find(root, (String) key, hash((String) key)) : null;
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * @see java.util.AbstractMap#containsKey(java.lang.Object)
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && find(root, (String) key, hash((String) key)) != null;
+    }
+
+    /**
+     * @see java.util.AbstractMap#size()
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @see java.util.AbstractMap#entrySet()
+     */
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return entrySet;
+    }
+
+    /**
+     * @param key a key
+     * @return the hash of the key, with its high bits spread to the first levels of the trie
+     */
+    private static int hash(String key) {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @param hash a key hash
+     * @param shift the shift of a trie level
+     * @return the bit of the key in the bitmap of a node of that level
+     */
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    /**
+     * Find an entry in the hash trie
+     *
+     * @param root the root of the hash trie
+     * @param key the entry key
+     * @param hash the key hash
+     * @return the entry, or null if there's none for the key
+     */
+    private static Entry find(Object root, String key, int hash) {
+        Object slot = root;
+        int shift = 0;
+        while (slot instanceof Node) {
+            Node node = (Node) slot;
+            int bit = bit(hash, shift);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            slot = node.slots[node.index(bit)];
+            shift += BITS;
+        }
+        if (slot instanceof Entry) {
+            return ((Entry) slot).getKey().equals(key) ? (Entry) slot : null;
+        } else if (slot instanceof Collision && ((Collision) slot).hash == hash) {
+            for (Entry entry : ((Collision) slot).entries) {
+                if (entry.getKey().equals(key)) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add or replace an entry in a branch of the hash trie
+     *
+     * @param slot the branch, null if empty
+     * @param shift the shift of the branch level
+     * @param entry the entry
+     * @param hash the entry key hash
+     * @return the new branch
+     */
+    private static Object put(Object slot, int shift, Entry entry, int hash) {
+        if (slot == null) {
+            return entry;
+        } else if (slot instanceof Node) {
+            Node node = (Node) slot;
+            int bit = bit(hash, shift);
+            int index = node.index(bit);
+            if ((node.bitmap & bit) == 0) {
+                Object[] slots = new Object[node.slots.length + 1];
+                System.arraycopy(node.slots, 0, slots, 0, index);
+                slots[index] = entry;
+                System.arraycopy(node.slots, index, slots, index + 1, node.slots.length - index);
+                return new Node(node.bitmap | bit, slots);
+            }
+            Object[] slots = node.slots.clone();
+            slots[index] = put(slots[index], shift + BITS, entry, hash);
+            return new Node(node.bitmap, slots);
+        } else if (slot instanceof Entry) {
+            Entry existing = (Entry) slot;
+            if (existing.getKey().equals(entry.getKey())) {
+                return entry;
+            }
+            int existingHash = hash(existing.getKey());
+            return existingHash == hash ? new Collision(hash, new Entry[] { existing, entry }) : split(existing, existingHash, entry, hash, shift);
+        }
+
+        Collision collision = (Collision) slot;
+        if (collision.hash != hash) {
+            return split(collision, collision.hash, entry, hash, shift);
+        }
+        for (int i = 0; i < collision.entries.length; i++) {
+            if (collision.entries[i].getKey().equals(entry.getKey())) {
+                Entry[] entries = collision.entries.clone();
+                entries[i] = entry;
+                return new Collision(hash, entries);
+            }
+        }
+        Entry[] entries = Arrays.copyOf(collision.entries, collision.entries.length + 1);
+        entries[collision.entries.length] = entry;
+        return new Collision(hash, entries);
+    }
+
+    /**
+     * Create the branch holding two leaves with different hashes
+     *
+     * @param first the first leaf, an entry or a collision
+     * @param firstHash the hash of the first leaf
+     * @param second the second leaf
+     * @param secondHash the hash of the second leaf
+     * @param shift the shift of the branch level
+     * @return the branch
+     */
+    private static Node split(Object first, int firstHash, Object second, int secondHash, int shift) {
+        int firstFragment = (firstHash >>> shift) & MASK;
+        int secondFragment = (secondHash >>> shift) & MASK;
+        if (firstFragment == secondFragment) {
+            return new Node(1 << firstFragment, new Object[] { split(first, firstHash, second, secondHash, shift + BITS) });
+        }
+        return new Node((1 << firstFragment) | (1 << secondFragment),
+                firstFragment < secondFragment ? new Object[] { first, second } : new Object[] { second, first });
+    }
+
+    /**
+     * Remove an entry from a branch of the hash trie
+     *
+     * @param slot the branch
+     * @param shift the shift of the branch level
+     * @param key the entry key
+     * @param hash the key hash
+     * @return the new branch, null if it's empty, or the same branch if the key is not in it
+     */
+    private static Object remove(Object slot, int shift, String key, int hash) {
+        if (slot instanceof Node) {
+            Node node = (Node) slot;
+            int bit = bit(hash, shift);
+            if ((node.bitmap & bit) == 0) {
+                return slot;
+            }
+            int index = node.index(bit);
+            Object child = remove(node.slots[index], shift + BITS, key, hash);
+            if (child == node.slots[index]) {
+                return slot;
+            } else if (child == null) {
+                if (node.slots.length == 1) {
+                    return null;
+                } else if (node.slots.length == 2 && !(node.slots[1 - index] instanceof Node)) {
+                    // leaves don't depend on their level, so a lone leaf moves up
+                    return node.slots[1 - index];
+                }
+                Object[] slots = new Object[node.slots.length - 1];
+                System.arraycopy(node.slots, 0, slots, 0, index);
+                System.arraycopy(node.slots, index + 1, slots, index, slots.length - index);
+                return new Node(node.bitmap & ~bit, slots);
+            } else if (node.slots.length == 1 && !(child instanceof Node)) {
+                return child;
+            }
+            Object[] slots = node.slots.clone();
+            slots[index] = child;
+            return new Node(node.bitmap, slots);
+        } else if (slot instanceof Entry) {
+            return ((Entry) slot).getKey().equals(key) ? null : slot;
+        }
+
+        Collision collision = (Collision) slot;
+        for (int i = 0; i < collision.entries.length; i++) {
+            if (collision.entries[i].getKey().equals(key)) {
+                if (collision.entries.length == 2) {
+                    return collision.entries[1 - i];
+                }
+                Entry[] entries = new Entry[collision.entries.length - 1];
+                System.arraycopy(collision.entries, 0, entries, 0, i);
+                System.arraycopy(collision.entries, i + 1, entries, i, entries.length - i);
+                return new Collision(collision.hash, entries);
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Build a branch of the hash trie at once, sorting the entries by the hash bits of each level
+     *
+     * @param entries the entries, reordered in place
+     * @param hashes the hash of each entry, reordered with them
+     * @param from the first entry of the branch
+     * @param to the end of the entries of the branch
+     * @param shift the shift of the branch level
+     * @param entryBuffer a buffer as large as the entries
+     * @param hashBuffer a buffer as large as the hashes
+     * @return the branch
+     */
+    private static Object build(Entry[] entries, int[] hashes, int from, int to, int shift, Entry[] entryBuffer, int[] hashBuffer) {
+        if (to - from == 1) {
+            return entries[from];
+        } else if (shift > MAX_SHIFT) {
+            // all the hash bits were used, so the remaining entries have the same hash
+            return new Collision(hashes[from], Arrays.copyOfRange(entries, from, to));
+        }
+
+        int[] starts = new int[WIDTH + 1];
+        for (int i = from; i < to; i++) {
+            starts[((hashes[i] >>> shift) & MASK) + 1]++;
+        }
+        int bitmap = 0;
+        int slots = 0;
+        for (int fragment = 0; fragment < WIDTH; fragment++) {
+            if (starts[fragment + 1] > 0) {
+                bitmap |= 1 << fragment;
+                slots++;
+            }
+            starts[fragment + 1] += starts[fragment];
+        }
+        int[] next = Arrays.copyOf(starts, WIDTH);
+        for (int i = from; i < to; i++) {
+            int target = from + next[(hashes[i] >>> shift) & MASK]++;
+            entryBuffer[target] = entries[i];
+            hashBuffer[target] = hashes[i];
+        }
+        System.arraycopy(entryBuffer, from, entries, from, to - from);
+        System.arraycopy(hashBuffer, from, hashes, from, to - from);
+
+        Object[] children = new Object[slots];
+        int child = 0;
+        for (int fragment = 0; fragment < WIDTH; fragment++) {
+            if (starts[fragment + 1] > starts[fragment]) {
+                children[child++] = build(entries, hashes, from + starts[fragment], from + starts[fragment + 1], shift + BITS, entryBuffer, hashBuffer);
+            }
+        }
+        return new Node(bitmap, children);
+    }
+
+    /**
+     * Set a position of the insertion order trie
+     *
+     * @param node the trie node, null if there's none yet
+     * @param shift the shift of the node level
+     * @param position the position
+     * @param entry the entry at that position, null for a removed entry
+     * @return the new node
+     */
+    private static Object[] setOrder(Object[] node, int shift, int position, Entry entry) {
+        Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+        int index = (position >>> shift) & MASK;
+        copy[index] = shift == 0 ? entry : setOrder((Object[]) copy[index], shift - BITS, position, entry);
+        return copy;
+    }
+
+    /**
+     * A node of the hash trie
+     */
+    private static final class Node {
+
+        /**
+         * The hash fragments of the node children
+         */
+        private final int bitmap;
+
+        /**
+         * The children in hash fragment order: entries, collisions or nodes
+         */
+        private final Object[] slots;
+
+        /**
+         * @param bitmap the hash fragments of the node children
+         * @param slots the children in hash fragment order
+         */
+        private Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        /**
+         * @param bit the bit of a hash fragment
+         * @return the position of the child of that fragment
+         */
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+    }
+
+    /**
+     * Entries whose keys have the same hash
+     */
+    private static final class Collision {
+
+        /**
+         * The hash of the keys
+         */
+        private final int hash;
+
+        /**
+         * The entries
+         */
+        private final Entry[] entries;
+
+        /**
+         * @param hash the hash of the keys
+         * @param entries the entries
+         */
+        private Collision(int hash, Entry[] entries) {
+            this.hash = hash;
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * An entry, with its position in the insertion order
+     */
+    private static final class Entry extends AbstractMap.SimpleImmutableEntry<String, Object> {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The entry position in the insertion order
+         */
+        private final int position;
+
+        /**
+         * @param key the entry key
+         * @param value the entry value
+         * @param position the entry position in the insertion order
+         */
+        private Entry(String key, Object value, int position) {
+            super(key, value);
+            this.position = position;
+        }
+    }
+
+    /**
+     * Entries in insertion order
+     */
+    private class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+
+        /**
+         * @see java.util.AbstractCollection#iterator()
+         */
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            return new Iterator<Map.Entry<String, Object>>() {
+
+                /**
+                 * The order trie leaf of the current position
+                 */
+                private Object[] leaf;
+
+                private int position = -1;
+
+                private Entry next = advance();
+
+                /**
+                 * @return the next entry, or null if there are no more entries
+                 */
+                private Entry advance() {
+                    while (++position < count) {
+                        if ((position & MASK) == 0) {
+                            leaf = order;
+                            for (int shift = orderShift; shift > 0; shift -= BITS) {
+                                leaf = (Object[]) leaf[(position >>> shift) & MASK];
+                            }
+                        }
+                        Entry entry = (Entry) leaf[position & MASK];
+                        if (entry != null) {
+                            return entry;
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Map.Entry<String, Object> next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    Entry result = next;
+                    next = advance();
+                    return result;
+                }
+            };
+        }
+
+        /**
+         * @see java.util.AbstractCollection#size()
+         */
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+}
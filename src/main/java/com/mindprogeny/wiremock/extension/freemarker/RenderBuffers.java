@@ -0,0 +1,252 @@
+/*
+ * RenderBuffers.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker;
+
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of the buffers templates are rendered to, pre-sized for each template from the size of its previous
+ * outputs, so that rendering a template doesn't grow its output buffer copy after copy.
+ * <p>
+ * The size estimate of a template follows its largest outputs immediately, and decreases slowly when its outputs get
+ * smaller. Buffers are returned to the pool after each render, as long as the pooled buffers don't hold more than
+ * {@value #MAX_RETAINED_CAPACITY} characters altogether. Buffers for outputs larger than {@value #MAX_POOLED_CAPACITY}
+ * characters are never pooled, they're allocated for a single render and left to the garbage collector.
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+final class RenderBuffers {
+
+    /**
+     * Capacity of the buffers of templates with no estimate yet
+     */
+    static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Largest buffer capacity, in characters, kept in the pool
+     */
+    static final int MAX_POOLED_CAPACITY = 256 * 1024;
+
+    /**
+     * Largest total capacity, in characters, of the pooled buffers
+     */
+    static final long MAX_RETAINED_CAPACITY = 4 * 1024 * 1024;
+
+    /**
+     * Maximum number of templates with a size estimate
+     */
+    private static final int MAX_ESTIMATES = 10000;
+
+    /**
+     * Writer to a reusable character buffer
+     */
+    static final class RenderBuffer extends Writer {
+
+        /**
+         * The buffered characters
+         */
+        private char[] buffer;
+
+        /**
+         * The number of buffered characters
+         */
+        private int length;
+
+        /**
+         * @param capacity the initial capacity
+         */
+        private RenderBuffer(int capacity) {
+            buffer = new char[capacity];
+        }
+
+        /**
+         * @see java.io.Writer#write(char[], int, int)
+         */
+        @Override
+        public void write(char[] characters, int offset, int count) {
+            ensureCapacity(length + count);
+            System.arraycopy(characters, offset, buffer, length, count);
+            length += count;
+        }
+
+        /**
+         * @see java.io.Writer#write(java.lang.String, int, int)
+         */
+        @Override
+        public void write(String string, int offset, int count) {
+            ensureCapacity(length + count);
+            string.getChars(offset, offset + count, buffer, length);
+            length += count;
+        }
+
+        /**
+         * @see java.io.Writer#write(int)
+         */
+        @Override
+        public void write(int character) {
+            ensureCapacity(length + 1);
+            buffer[length++] = (char) character;
+        }
+
+        /**
+         * @see java.io.Writer#flush()
+         */
+        @Override
+        public void flush() {
+            // nothing to flush
+        }
+
+        /**
+         * @see java.io.Writer#close()
+         */
+        @Override
+        public void close() {
+            // the buffer is reused
+        }
+
+        /**
+         * @return the number of buffered characters
+         */
+        int length() {
+            return length;
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return new String(buffer, 0, length);
+        }
+
+        /**
+         * Empty the buffer, making sure it can hold a number of characters without growing
+         * 
+         * @param capacity the required capacity
+         */
+        private void reset(int capacity) {
+            length = 0;
+            if (capacity > buffer.length) {
+                // nothing to copy
+                buffer = new char[capacity];
+            }
+        }
+
+        /**
+         * Grow the buffer to hold at least a number of characters
+         * 
+         * @param capacity the required capacity
+         */
+        private void ensureCapacity(int capacity) {
+            if (capacity > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length + (buffer.length >> 1)));
+            }
+        }
+    }
+
+    /**
+     * Maximum number of pooled buffers
+     */
+    private final int poolSize;
+
+    /**
+     * The pooled buffers
+     */
+    private final Queue<RenderBuffer> pool = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of pooled buffers
+     */
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * The total capacity, in characters, of the pooled buffers
+     */
+    private final AtomicLong retained = new AtomicLong();
+
+    /**
+     * Output size estimates, by template name
+     */
+    private final BoundedCache<String, AtomicInteger> estimates = new BoundedCache<>(MAX_ESTIMATES);
+
+    /**
+     * @param poolSize maximum number of pooled buffers
+     */
+    RenderBuffers(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * Take a buffer from the pool, or create one if the pool is empty, with enough capacity for the expected output
+     * of a template
+     * 
+     * @param templateName the name of the template to render
+     * @return an empty buffer
+     */
+    RenderBuffer acquire(String templateName) {
+        AtomicInteger estimate = estimates.get(templateName);
+        // a little headroom, so that outputs slightly larger than the previous ones don't grow the buffer
+        int capacity = estimate == null ? INITIAL_CAPACITY : estimate.get() + (estimate.get() >> 3);
+        // the pooled buffers would have to be replaced anyway
+        RenderBuffer buffer = capacity > MAX_POOLED_CAPACITY ? null : pool.poll();
+        if (buffer == null) {
+            return new RenderBuffer(capacity);
+        }
+        pooled.decrementAndGet();
+        retained.addAndGet(-buffer.buffer.length);
+        buffer.reset(capacity);
+        return buffer;
+    }
+
+    /**
+     * Record the output size of a template, and return its buffer to the pool
+     * 
+     * @param templateName the name of the rendered template
+     * @param buffer the buffer the template was rendered to
+     */
+    void release(String templateName, RenderBuffer buffer) {
+        AtomicInteger estimate = estimates.get(templateName);
+        if (estimate == null) {
+            estimates.put(templateName, new AtomicInteger(buffer.length));
+        } else {
+            estimate.updateAndGet(previous -> Math.max(buffer.length, previous - (previous >> 3)));
+        }
+
+        int capacity = buffer.buffer.length;
+        if (capacity > MAX_POOLED_CAPACITY) {
+            return;
+        }
+        if (pooled.incrementAndGet() > poolSize) {
+            pooled.decrementAndGet();
+        } else if (retained.addAndGet(capacity) > MAX_RETAINED_CAPACITY) {
+            retained.addAndGet(-capacity);
+            pooled.decrementAndGet();
+        } else {
+            pool.add(buffer);
+        }
+    }
+
+}
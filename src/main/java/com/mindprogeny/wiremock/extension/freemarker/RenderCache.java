@@ -0,0 +1,172 @@
+/*
+ * RenderCache.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.github.tomakehurst.wiremock.http.Request;
+
+/**
+ * Bounded cache of the responses rendered by a stub template, for stubs whose response only depends on the request and
+ * on the variable sets they use.
+ * <p>
+ * Responses are cached by the request inputs of the template, by the versions of the stub variable sets and by the key
+ * of the variables chosen for the request. The inputs are, by default, the whole request as seen by the template (url,
+ * body and cookies, and the headers when the variables are chosen from them), or only the values of the declared
+ * request object paths. Templates which read the current time, use the variable methods or include other templates
+ * (whose content is not part of the key) are never cached. When the cache is full, the oldest responses are dropped
+ * first.
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+final class RenderCache {
+
+    /**
+     * Template constructs whose output is not a function of the request and of the stub variable sets: the current
+     * time, the variable methods (which read any set or update them), and the templates loaded by the template (which
+     * may use any of these, and change without the template changing)
+     */
+    private static final Pattern NON_DETERMINISTIC = Pattern.compile("\\.now\\b|\\bvar(?:Index|Increment|CompareAndSet|GetAndPut)\\b"
+            + "|#(?:include|import)\\b|\\.get_optional_template\\b|\\?interpret\\b");
+
+    /**
+     * Separator of the key inputs, not expected in any of them
+     */
+    private static final char SEPARATOR = '\u0000';
+
+    /**
+     * Whether the template can be cached at all
+     */
+    private final boolean cacheable;
+
+    /**
+     * The request object paths the template reads, or null to use the whole request
+     */
+    private final List<RequestObjectPath> keyPaths;
+
+    /**
+     * Whether the request headers are an input of the template
+     */
+    private final boolean headers;
+
+    /**
+     * The cached responses, by key
+     */
+    private final BoundedCache<String, String> responses;
+
+    /**
+     * @param template the stub template
+     * @param keyPaths the request object paths the template reads, as a list or separated by commas, or null to use the
+     *            whole request
+     * @param headers true if the request headers are an input of the template
+     * @param maxEntries maximum number of cached responses
+     * @throws IllegalArgumentException if any of the paths is not a valid json pointer, or the maximum is not positive
+     */
+    RenderCache(String template, Object keyPaths, boolean headers, int maxEntries) {
+        this.cacheable = !NON_DETERMINISTIC.matcher(template).find();
+        this.keyPaths = keyPaths == null ? null : compile(keyPaths);
+        this.headers = headers;
+        this.responses = new BoundedCache<>(maxEntries);
+    }
+
+    /**
+     * Build the cache key of a render
+     * 
+     * @param request the request
+     * @param requestObject the parsed request object
+     * @param layers the names of the stub variable sets, or null if the stub has no variables
+     * @param variableKey the key of the variables chosen for the request, or null if the template gets whole sets
+     * @param snapshots the variable sets pinned for the render
+     * @return the cache key, or null if the template can't be cached
+     */
+    @SuppressWarnings("rawtypes")
+    String key(Request request, Map requestObject, List<String> layers, String variableKey, Map<String, VariableSet> snapshots) {
+        if (!cacheable) {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder();
+        if (layers != null) {
+            for (String layer : layers) {
+                VariableSet snapshot = snapshots.get(layer);
+                key.append(snapshot == null ? -1 : snapshot.getVersion()).append(SEPARATOR);
+            }
+            // the variables may be chosen from parts of the request the declared paths leave out
+            if (variableKey != null) {
+                key.append('=').append(variableKey);
+            }
+            key.append(SEPARATOR);
+        }
+        if (keyPaths != null) {
+            for (RequestObjectPath path : keyPaths) {
+                key.append(path.resolve(requestObject)).append(SEPARATOR);
+            }
+        } else {
+            key.append(request.getUrl()).append(SEPARATOR).append(request.getBodyAsString()).append(SEPARATOR).append(request.getCookies());
+        }
+        if (headers) {
+            request.getHeaders().all().forEach(header -> key.append(SEPARATOR).append(header));
+        }
+        return key.toString();
+    }
+
+    /**
+     * @param key the cache key
+     * @return the cached response, or null if not cached
+     */
+    String get(String key) {
+        return responses.get(key);
+    }
+
+    /**
+     * Cache a response, dropping the oldest responses if the cache is full
+     * 
+     * @param key the cache key
+     * @param response the rendered response
+     */
+    void put(String key, String response) {
+        responses.put(key, response);
+    }
+
+    /**
+     * Compile the request object paths of the key
+     * 
+     * @param keyPaths the paths, as a list or separated by commas
+     * @return the compiled paths
+     */
+    private static List<RequestObjectPath> compile(Object keyPaths) {
+        List<RequestObjectPath> result = new ArrayList<>();
+        if (keyPaths instanceof Collection) {
+            ((Collection<?>) keyPaths).forEach(path -> result.add(RequestObjectPath.compile(String.valueOf(path).trim())));
+        } else {
+            for (String path : keyPaths.toString().split(",")) {
+                result.add(RequestObjectPath.compile(path.trim()));
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+}
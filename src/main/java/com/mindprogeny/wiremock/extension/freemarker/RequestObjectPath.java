@@ -0,0 +1,165 @@
+/*
+ * RequestObjectPath.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pre-compiled path into a parsed request object (as produced by the json parser or by an
+ * {@link com.mindprogeny.wiremock.extension.freemarker.objectbuilder.XmlObjectBuilder}).
+ * <p>
+ * The path uses the json pointer syntax (<code>/root/parent/child/1/value</code>), where each segment is either a map
+ * key or, when the current element is a list, an index in that list. <code>~1</code> and <code>~0</code> can be used to
+ * escape <code>/</code> and <code>~</code> in key names.
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public class RequestObjectPath {
+
+    /**
+     * The path as it was defined
+     */
+    private final String path;
+
+    /**
+     * The unescaped path segments
+     */
+    private final String[] segments;
+
+    /**
+     * The segments parsed as list indexes, or -1 if the segment can't be used as an index
+     */
+    private final int[] indexes;
+
+    /**
+     * @param path the json pointer to compile
+     */
+    private RequestObjectPath(String path, String[] segments, int[] indexes) {
+        this.path = path;
+        this.segments = segments;
+        this.indexes = indexes;
+    }
+
+    /**
+     * Compile a json pointer so that it can be resolved against any number of request objects
+     *
+     * @param path the json pointer
+     * @return the compiled path
+     * @throws IllegalArgumentException if the path is not a valid json pointer
+     */
+    public static RequestObjectPath compile(String path) {
+        if (path == null || (path.length() > 0 && path.charAt(0) != '/')) {
+            throw new IllegalArgumentException("Invalid request object path \"" + path + "\". Expected a json pointer (/element/element...)");
+        }
+
+        List<String> segments = new ArrayList<>();
+        int start = 1;
+        while (start <= path.length() && path.length() > 0) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            segments.add(path.substring(start, end).replace("~1", "/").replace("~0", "~"));
+            start = end + 1;
+        }
+
+        int[] indexes = new int[segments.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = toIndex(segments.get(i));
+        }
+
+        return new RequestObjectPath(path, segments.toArray(new String[segments.size()]), indexes);
+    }
+
+    /**
+     * Resolve the path against a request object
+     *
+     * @param requestObject the request object
+     * @return the value found in the path, or null if any of the path elements does not exist
+     */
+    @SuppressWarnings("rawtypes")
+    public Object resolve(Map requestObject) {
+        Object pointer = requestObject;
+        for (int i = 0; i < segments.length && pointer != null; i++) {
+            if (pointer instanceof Map) {
+                pointer = ((Map) pointer).get(segments[i]);
+            } else if (pointer instanceof Collection && indexes[i] >= 0) {
+                pointer = elementAt((Collection) pointer, indexes[i]);
+            } else {
+                pointer = null;
+            }
+        }
+        return pointer;
+    }
+
+    /**
+     * Retrieve an element of a collection by its position
+     *
+     * @param collection the collection
+     * @param index the position of the element
+     * @return the element, or null if the collection doesn't have as many elements
+     */
+    @SuppressWarnings("rawtypes")
+    private static Object elementAt(Collection collection, int index) {
+        if (index >= collection.size()) {
+            return null;
+        }
+        if (collection instanceof List) {
+            return ((List) collection).get(index);
+        }
+        Iterator iterator = collection.iterator();
+        for (int i = 0; i < index; i++) {
+            iterator.next();
+        }
+        return iterator.next();
+    }
+
+    /**
+     * Parse a path segment as a list index
+     *
+     * @param segment the path segment
+     * @return the index or -1 if the segment is not a non negative integer
+     */
+    private static int toIndex(String segment) {
+        if (segment.isEmpty() || segment.length() > 9) {
+            return -1;
+        }
+        for (int i = 0; i < segment.length(); i++) {
+            if (!Character.isDigit(segment.charAt(i))) {
+                return -1;
+            }
+        }
+        return Integer.parseInt(segment);
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return path;
+    }
+
+}
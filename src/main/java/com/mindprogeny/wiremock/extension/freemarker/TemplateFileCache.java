@@ -0,0 +1,300 @@
+/*
+ * TemplateFileCache.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.github.tomakehurst.wiremock.common.FileSource;
+import com.github.tomakehurst.wiremock.common.LocalNotifier;
+
+import freemarker.template.Template;
+
+/**
+ * In memory cache of the templates kept in the stub files (<code>bodyFileName</code>), so that rendering them doesn't
+ * read the files again.
+ * <p>
+ * Each file source root is watched (see {@link FileWatcher#subscribe(Path, Consumer)}, the watcher being shared with the
+ * caches of the other transformer instances) when its first template is cached, and a template is
+ * dropped from the cache as soon as its file changes, notifying the name it was compiled with so that only that
+ * compiled template is discarded, along with the template library kept in the same file (see
+ * {@link LibraryTemplateLoader}). When the root can't be watched, the modification time and size of the file are
+ * checked instead on every render, which still avoids reading it. File sources outside of the default file system are
+ * read on every render.
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+final class TemplateFileCache {
+
+    /**
+     * A cached template file
+     */
+    static final class TemplateFile {
+
+        /**
+         * The name the template is compiled with, a digest of its content
+         */
+        private final String name;
+
+        /**
+         * The template content
+         */
+        private final String content;
+
+        /**
+         * The file attributes when it was read, or null if the file is not checked for changes
+         */
+        private final BasicFileAttributes attributes;
+
+        /**
+         * The compiled template, once compiled
+         */
+        private volatile Template compiled;
+
+        /**
+         * @param content the template content
+         */
+        TemplateFile(String content) {
+            this(content, null);
+        }
+
+        /**
+         * @param content the template content
+         * @param attributes the file attributes when it was read, or null if the file is not checked for changes
+         */
+        private TemplateFile(String content, BasicFileAttributes attributes) {
+            this.name = digest(content);
+            this.content = content;
+            this.attributes = attributes;
+        }
+
+        /**
+         * @return the name the template is compiled with, a digest of its content
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return the template content
+         */
+        String getContent() {
+            return content;
+        }
+
+        /**
+         * @return the compiled template, or null if not compiled yet
+         */
+        Template getCompiled() {
+            return compiled;
+        }
+
+        /**
+         * @param compiled the compiled template
+         */
+        void setCompiled(Template compiled) {
+            this.compiled = compiled;
+        }
+
+        /**
+         * @param file the template file
+         * @return true if the file was modified since it was read
+         */
+        private boolean isStale(Path file) {
+            BasicFileAttributes current = attributes(file);
+            return current == null || attributes == null || current.size() != attributes.size()
+                    || !current.lastModifiedTime().equals(attributes.lastModifiedTime());
+        }
+    }
+
+    /**
+     * The cached templates, by file
+     */
+    private final Map<Path, TemplateFile> templates = new ConcurrentHashMap<>();
+
+    /**
+     * The subscription to the watcher of each file source root, or an empty subscription if the root can't be watched.
+     * Dropped along with the cache, which ends the subscriptions.
+     */
+    private final Map<URI, Optional<FileWatcher.Subscription>> watchers = new ConcurrentHashMap<>();
+
+    /**
+     * Incremented on every change of a watched file
+     */
+    private final AtomicLong changes = new AtomicLong();
+
+    /**
+     * Notified with the name of each template dropped from the cache, or with null if all of them are
+     */
+    private final Consumer<String> invalidation;
+
+    /**
+     * Whether the file source roots are watched, rather than the files checked on every render
+     */
+    private final boolean watching;
+
+    /**
+     * @param invalidation notified with the name of each template dropped from the cache, or with null if all of them are
+     * @param watching true to watch the file source roots, false to check the files on every render
+     */
+    TemplateFileCache(Consumer<String> invalidation, boolean watching) {
+        this.invalidation = invalidation;
+        this.watching = watching;
+    }
+
+    /**
+     * Retrieve a template file, reading it only if it's not cached
+     * 
+     * @param files the stub file source
+     * @param fileName the template file name, relative to the file source
+     * @return the template
+     */
+    TemplateFile get(FileSource files, String fileName) {
+        URI root = files.getUri();
+        if (!"file".equals(root.getScheme())) {
+            return read(files, fileName, null);
+        }
+
+        Optional<FileWatcher.Subscription> watcher = watchers.computeIfAbsent(root, this::startWatching);
+        Path path = Paths.get(root).resolve(fileName).normalize();
+        TemplateFile result = templates.get(path);
+        if (result == null || (!watcher.isPresent() && result.isStale(path))) {
+            long before = changes.get();
+            TemplateFile previous = result;
+            result = read(files, fileName, watcher.isPresent() ? null : attributes(path));
+            templates.put(path, result);
+            if (changes.get() != before) {
+                // the file may have changed while it was read, after its change was processed
+                templates.remove(path, result);
+            }
+            if (previous != null && !previous.getName().equals(result.getName())) {
+                invalidation.accept(previous.getName());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Start watching a file source, if not watched yet, so that the libraries kept in its files are discarded as soon as
+     * they change
+     * 
+     * @param files the stub file source
+     */
+    void watch(FileSource files) {
+        if ("file".equals(files.getUri().getScheme())) {
+            watchers.computeIfAbsent(files.getUri(), this::startWatching);
+        }
+    }
+
+    /**
+     * Read a template file
+     * 
+     * @param files the stub file source
+     * @param fileName the template file name, relative to the file source
+     * @param attributes the file attributes before it's read, or null if the file is not checked for changes
+     * @return the template
+     */
+    private static TemplateFile read(FileSource files, String fileName, BasicFileAttributes attributes) {
+        return new TemplateFile(new String(files.getBinaryFileNamed(fileName).readContents(), StandardCharsets.UTF_8), attributes);
+    }
+
+    /**
+     * @param file a template file
+     * @return the file attributes, or null if they can't be read
+     */
+    private static BasicFileAttributes attributes(Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    /**
+     * Start watching a file source root
+     * 
+     * @param root the file source root
+     * @return the subscription to the root watcher, or an empty subscription if the root can't be watched
+     */
+    private Optional<FileWatcher.Subscription> startWatching(URI root) {
+        if (!watching || !Files.isDirectory(Paths.get(root))) {
+            return Optional.empty();
+        }
+        try {
+            Path directory = Paths.get(root).toAbsolutePath().normalize();
+            return Optional.of(FileWatcher.subscribe(directory, file -> changed(directory, file)));
+        } catch (IOException | RuntimeException e) {
+            LocalNotifier.notifier().error("Unable to watch template files in " + root + ", they will be checked on every render", e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Drop the cached template of a changed file
+     * 
+     * @param root the file source root
+     * @param file the changed file, or null if any file may have changed
+     */
+    private void changed(Path root, Path file) {
+        changes.incrementAndGet();
+        if (file == null) {
+            templates.clear();
+            invalidation.accept(null);
+            return;
+        }
+        TemplateFile removed = templates.remove(file.normalize());
+        if (removed != null) {
+            invalidation.accept(removed.getName());
+        }
+        invalidation.accept(root.relativize(file).toString().replace(File.separatorChar, '/'));
+    }
+
+    /**
+     * Digest a template content into the name it's compiled with. The name has no <code>/</code>, so that the
+     * libraries included or imported by the template are resolved from the root of the stub files.
+     * 
+     * @param template the template content
+     * @return the template name
+     */
+    static String digest(String template) {
+        try {
+            return Base64.getUrlEncoder().encodeToString(MessageDigest.getInstance("SHA-1").digest(template.getBytes()));
+        } catch (NoSuchAlgorithmException e) {
+            // every java platform is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * VariableCodec.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Shared json readers and writers for variables, variable sets and their settings.
+ * <p>
+ * The readers and writers are built once from a single configured object mapper, so that all the admin tasks, the
+ * journal and the off-heap storage share the same, already warmed up, serializer and deserializer caches. They are
+ * immutable and thread safe.
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public final class VariableCodec {
+
+    /**
+     * The configured object mapper, only used to build the readers and writers
+     */
+    private static final ObjectMapper jsonMapper = new ObjectMapper().registerModule(VariableValueDeserializer.module());
+
+    /**
+     * Reader of variable maps (variable sets, patches or the whole repository)
+     */
+    private static final ObjectReader variablesReader = jsonMapper.readerFor(Map.class);
+
+    /**
+     * Reader of any variable value
+     */
+    private static final ObjectReader valueReader = jsonMapper.readerFor(Object.class);
+
+    /**
+     * Reader of variable set settings
+     */
+    private static final ObjectReader settingsReader = jsonMapper.readerFor(VariableSetSettings.class);
+
+    /**
+     * Reader of batches of variable operations
+     */
+    private static final ObjectReader operationsReader = jsonMapper.readerFor(new TypeReference<List<VariableOperation>>() {
+        // generic list type
+    });
+
+    /**
+     * Writer of variables and settings
+     */
+    private static final ObjectWriter writer = jsonMapper.writer();
+
+    /**
+     * Not to be instantiated
+     */
+    private VariableCodec() {
+    }
+
+    /**
+     * @return the reader of variable maps, producing mutable maps that keep the json order
+     */
+    public static ObjectReader variablesReader() {
+        return variablesReader;
+    }
+
+    /**
+     * @return the reader of any variable value
+     */
+    public static ObjectReader valueReader() {
+        return valueReader;
+    }
+
+    /**
+     * @return the reader of variable set settings
+     */
+    public static ObjectReader settingsReader() {
+        return settingsReader;
+    }
+
+    /**
+     * @return the reader of batches of variable operations
+     */
+    public static ObjectReader operationsReader() {
+        return operationsReader;
+    }
+
+    /**
+     * @return the writer of variables and settings
+     */
+    public static ObjectWriter writer() {
+        return writer;
+    }
+
+    /**
+     * Create a streaming parser over json content
+     *
+     * @param content the json content
+     * @return the parser
+     * @throws IOException if the parser can't be created
+     */
+    public static JsonParser parser(byte[] content) throws IOException {
+        return jsonMapper.getFactory().createParser(content);
+    }
+
+    /**
+     * Create a streaming parser over a json stream, whose token locations are byte offsets in the stream
+     *
+     * @param content the json stream
+     * @return the parser
+     * @throws IOException if the parser can't be created
+     */
+    public static JsonParser parser(InputStream content) throws IOException {
+        return jsonMapper.getFactory().createParser(content);
+    }
+
+}
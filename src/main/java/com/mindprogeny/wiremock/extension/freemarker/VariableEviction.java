@@ -0,0 +1,287 @@
+/*
+ * VariableEviction.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+/**
+ * Tracks when the variables of the sets with an eviction policy (see {@link VariableSetSettings#isEvicting()}) were last
+ * written, and selects the ones to evict: the variables not updated for longer than the set ttl, and the least
+ * recently updated variables when the set has more entries or bytes than allowed.
+ * <p>
+ * The repository tells which keys each new version of a set wrote, so that only those are tracked again (a set replaced
+ * as a whole is written entirely). Values can't be compared with the previous version instead, as the off heap and
+ * columnar storages create a new value instance on every read. Not thread safe, only used under the repository write
+ * lock.
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+final class VariableEviction {
+
+    /**
+     * Name of the counter of variables evicted because they expired
+     */
+    static final String EXPIRED = "expired";
+
+    /**
+     * Name of the counter of variables evicted because the set exceeded its size
+     */
+    static final String EVICTED = "evicted";
+
+    /**
+     * The trackers of the sets with an eviction policy, by set name
+     */
+    private final Map<String, Tracker> trackers = new HashMap<>();
+
+    /**
+     * Track the variables written by a new version of the repository, and select the variables to evict from it
+     *
+     * @param previous the variable sets currently published
+     * @param current the variable sets about to be published
+     * @param written the keys written in each set changed key by key, the other changed sets being written entirely
+     * @param now the current time, in milliseconds
+     * @return the merge patches removing the evicted variables, by set name
+     */
+    Map<String, Map<String, Object>> track(Map<String, VariableSet> previous, Map<String, VariableSet> current,
+            Map<String, ? extends Collection<String>> written, long now) {
+        trackers.keySet().removeIf(name -> !current.containsKey(name) || !current.get(name).getSettings().isEvicting());
+
+        Map<String, Map<String, Object>> evictions = new LinkedHashMap<>();
+        current.forEach((name, set) -> {
+            if (set.getSettings().isEvicting()) {
+                Tracker tracker = trackers.get(name);
+                if (tracker == null) {
+                    tracker = new Tracker();
+                    trackers.put(name, tracker);
+                    tracker.update(set, null, now);
+                } else if (previous.get(name) != set) {
+                    tracker.update(set, written.get(name), now);
+                }
+                Map<String, Object> patch = tracker.evict(now);
+                if (!patch.isEmpty()) {
+                    evictions.put(name, patch);
+                }
+            }
+        });
+        return evictions;
+    }
+
+    /**
+     * @return true if any set has a variable ttl
+     */
+    boolean isExpiring() {
+        return trackers.values().stream().anyMatch(tracker -> tracker.settings.getTtl() > 0);
+    }
+
+    /**
+     * @param now the current time, in milliseconds
+     * @return true if any tracked variable has expired
+     */
+    boolean hasExpired(long now) {
+        return trackers.values().stream().anyMatch(tracker -> tracker.isExpired(now));
+    }
+
+    /**
+     * @param setName the variable set name
+     * @return the number of expired and evicted variables of the set, or null if the set has no eviction policy
+     */
+    Map<String, Long> getCounters(String setName) {
+        Tracker tracker = trackers.get(setName);
+        if (tracker == null) {
+            return null;
+        }
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put(EXPIRED, tracker.expired);
+        counters.put(EVICTED, tracker.evicted);
+        return counters;
+    }
+
+    /**
+     * Last write of a variable
+     */
+    private static final class Write {
+
+        /**
+         * When the variable was written, in milliseconds
+         */
+        private final long time;
+
+        /**
+         * The size of the variable as json, if the set is bounded in bytes
+         */
+        private final long bytes;
+
+        /**
+         * @param time when the variable was written, in milliseconds
+         * @param bytes the size of the variable as json
+         */
+        private Write(long time, long bytes) {
+            this.time = time;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * The writes of the variables of a set
+     */
+    private static final class Tracker {
+
+        /**
+         * Last write of each variable, from the least to the most recently written
+         */
+        private final LinkedHashMap<String, Write> writes = new LinkedHashMap<>();
+
+        /**
+         * The settings of the set version last tracked
+         */
+        private VariableSetSettings settings;
+
+        /**
+         * The total size of the variables, if the set is bounded in bytes
+         */
+        private long bytes;
+
+        /**
+         * Number of variables evicted because they expired
+         */
+        private long expired;
+
+        /**
+         * Number of variables evicted because the set exceeded its size
+         */
+        private long evicted;
+
+        /**
+         * Record the variables written by a new version of the set
+         *
+         * @param current the new version of the set
+         * @param written the keys written by the new version, null if the whole set was written
+         * @param now the current time, in milliseconds
+         */
+        private void update(VariableSet current, Collection<String> written, long now) {
+            // variables not measured yet are measured without changing their write time
+            boolean measure = current.getSettings().getMaxBytes() > 0 && (settings == null || settings.getMaxBytes() == 0);
+            settings = current.getSettings();
+            Map<String, Object> variables = current.getVariables() == null ? new HashMap<>() : current.getVariables();
+
+            if (written == null) {
+                writes.clear();
+                bytes = 0;
+                // values are only read (and deserialized) when they must be measured
+                variables.keySet().forEach(key -> write(key, variables, now));
+                return;
+            }
+            written.forEach(key -> {
+                Write write = writes.remove(key);
+                if (write != null) {
+                    bytes -= write.bytes;
+                }
+                if (variables.containsKey(key)) {
+                    write(key, variables, now);
+                }
+            });
+            if (measure) {
+                writes.replaceAll((key, write) -> {
+                    Write measured = new Write(write.time, sizeOf(variables.get(key)));
+                    bytes += measured.bytes - write.bytes;
+                    return measured;
+                });
+            }
+        }
+
+        /**
+         * Record the write of a variable, as the most recent one
+         *
+         * @param key the variable key
+         * @param variables the variables of the set
+         * @param now the current time, in milliseconds
+         */
+        private void write(String key, Map<String, Object> variables, long now) {
+            Write write = new Write(now, settings.getMaxBytes() > 0 ? sizeOf(variables.get(key)) : 0);
+            bytes += write.bytes;
+            writes.put(key, write);
+        }
+
+        /**
+         * Select the variables to evict, starting from the least recently written
+         *
+         * @param now the current time, in milliseconds
+         * @return the merge patch removing the evicted variables
+         */
+        private Map<String, Object> evict(long now) {
+            Map<String, Object> patch = new LinkedHashMap<>();
+            Iterator<Map.Entry<String, Write>> iterator = writes.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Write> write = iterator.next();
+                if (isExpired(write.getValue(), now)) {
+                    expired++;
+                } else if ((settings.getMaxEntries() > 0 && writes.size() > settings.getMaxEntries())
+                        || (settings.getMaxBytes() > 0 && bytes > settings.getMaxBytes())) {
+                    evicted++;
+                } else {
+                    break;
+                }
+                bytes -= write.getValue().bytes;
+                iterator.remove();
+                patch.put(write.getKey(), null);
+            }
+            return patch;
+        }
+
+        /**
+         * @param now the current time, in milliseconds
+         * @return true if the least recently written variable has expired
+         */
+        private boolean isExpired(long now) {
+            return !writes.isEmpty() && isExpired(writes.values().iterator().next(), now);
+        }
+
+        /**
+         * @param write the last write of a variable
+         * @param now the current time, in milliseconds
+         * @return true if the variable has expired
+         */
+        private boolean isExpired(Write write, long now) {
+            return settings.getTtl() > 0 && now - write.time >= TimeUnit.SECONDS.toMillis(settings.getTtl());
+        }
+
+        /**
+         * @param value a variable value
+         * @return the size of the value as json
+         */
+        private static long sizeOf(Object value) {
+            try {
+                return VariableCodec.writer().writeValueAsBytes(value).length;
+            } catch (JsonProcessingException jpe) {
+                // only json values are stored
+                return 0;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,592 @@
+/*
+ * VariableJournal.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+/**
+ * Append-only journal of the variable repository updates, so that the repository can be rebuilt after a restart.
+ * <p>
+ * Each update is appended as a record made of its length, the operation, the variable set name and, when applicable, the
+ * json content of the variable set or of its settings. Once the journal grows beyond the compaction threshold it is
+ * rewritten with only the current contents of the repository.
+ * <p>
+ * Each record is written with a single call, and a record only partially written is truncated away before the failure
+ * is reported, so that replay never stops at a torn record with acknowledged records after it. If the journal can't be
+ * truncated either, it refuses any further record until it's compacted.
+ * <p>
+ * The journal is replayed through memory mapped sequential reads in two passes: the first one only reads the record
+ * headers to find which records are still relevant (the last full update of each set and any single variable updates
+ * after it), and the second one only parses the content of those.
+ * <p>
+ * This class is not thread safe, the repository serializes all the updates.
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public class VariableJournal implements Closeable {
+
+    /**
+     * Operation to set the variables of a set
+     */
+    private static final byte SET = 1;
+
+    /**
+     * Operation to remove a set
+     */
+    private static final byte REMOVE = 2;
+
+    /**
+     * Operation to clear the repository
+     */
+    private static final byte RESET = 3;
+
+    /**
+     * Operation to define the settings of a set
+     */
+    private static final byte SETTINGS = 4;
+
+    /**
+     * Operation to set a single variable of a set
+     */
+    private static final byte PUT = 5;
+
+    /**
+     * Operation to apply a merge patch to a set
+     */
+    private static final byte PATCH = 6;
+
+    /**
+     * Operation to apply a batch of operations at once
+     */
+    private static final byte BATCH = 7;
+
+    /**
+     * Size of the record header: record length and operation
+     */
+    private static final int HEADER_SIZE = Integer.BYTES + Byte.BYTES;
+
+    /**
+     * Largest region of the journal mapped at once when replaying
+     */
+    private static final long MAPPING_WINDOW = 256L * 1024 * 1024;
+
+    /**
+     * The journal file
+     */
+    private final Path file;
+
+    /**
+     * Minimum journal size before being compacted
+     */
+    private final long compactionThreshold;
+
+    /**
+     * Journal size after which it will be compacted
+     */
+    private long nextCompaction;
+
+    /**
+     * Current journal size
+     */
+    private long size;
+
+    /**
+     * Channel to append records
+     */
+    private FileChannel output;
+
+    /**
+     * The failure to truncate a partially written record, after which no record is appended until the journal is
+     * compacted
+     */
+    private IOException failure;
+
+    /**
+     * @param file the journal file, created if it doesn't exist
+     * @param compactionThreshold minimum journal size, in bytes, before being compacted
+     */
+    public VariableJournal(Path file, long compactionThreshold) {
+        this.file = file;
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Replay the journal and open it to append new records. Any incomplete record at the end of the journal (from an
+     * interrupted write) is discarded.
+     *
+     * @return the repository contents recorded in the journal
+     * @throws IOException if the journal can't be read or opened
+     */
+    public Contents open() throws IOException {
+        Contents contents = new Contents();
+        if (Files.exists(file)) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long end = replay(channel, contents);
+                if (end < channel.size()) {
+                    channel.truncate(end);
+                }
+                size = end;
+            }
+        } else if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+
+        nextCompaction = Math.max(compactionThreshold, 2 * size);
+        output = openOutput();
+        return contents;
+    }
+
+    /**
+     * Record the variables of a set
+     *
+     * @param setName the variable set name
+     * @param variables the variables of the set
+     * @throws IOException if the record can't be written
+     */
+    public void appendSet(String setName, Map<String, Object> variables) throws IOException {
+        append(SET, setName, VariableCodec.writer().writeValueAsBytes(variables));
+    }
+
+    /**
+     * Record the update of a single variable of a set
+     *
+     * @param setName the variable set name
+     * @param key the variable key
+     * @param value the variable value
+     * @throws IOException if the record can't be written
+     */
+    public void appendPut(String setName, String key, Object value) throws IOException {
+        append(PUT, setName, VariableCodec.writer().writeValueAsBytes(Collections.singletonMap(key, value)));
+    }
+
+    /**
+     * Record a merge patch of a set
+     *
+     * @param setName the variable set name
+     * @param patch the merge patch
+     * @throws IOException if the record can't be written
+     */
+    public void appendPatch(String setName, Map<String, Object> patch) throws IOException {
+        append(PATCH, setName, VariableCodec.writer().writeValueAsBytes(patch));
+    }
+
+    /**
+     * Record a batch of operations applied at once
+     *
+     * @param operations the operations
+     * @throws IOException if the record can't be written
+     */
+    public void appendBatch(List<VariableOperation> operations) throws IOException {
+        append(BATCH, null, VariableCodec.writer().writeValueAsBytes(operations));
+    }
+
+    /**
+     * Record the removal of a set
+     *
+     * @param setName the variable set name
+     * @throws IOException if the record can't be written
+     */
+    public void appendRemove(String setName) throws IOException {
+        append(REMOVE, setName, null);
+    }
+
+    /**
+     * Record the clearing of the repository
+     *
+     * @throws IOException if the record can't be written
+     */
+    public void appendReset() throws IOException {
+        append(RESET, null, null);
+    }
+
+    /**
+     * Record the settings of a set
+     *
+     * @param setName the variable set name
+     * @param settings the variable set settings
+     * @throws IOException if the record can't be written
+     */
+    public void appendSettings(String setName, VariableSetSettings settings) throws IOException {
+        append(SETTINGS, setName, VariableCodec.writer().writeValueAsBytes(settings));
+    }
+
+    /**
+     * @return true if the journal grew enough to be compacted
+     */
+    public boolean needsCompaction() {
+        return size >= nextCompaction;
+    }
+
+    /**
+     * Rewrite the journal with the current repository contents only. The new journal replaces the current one
+     * atomically, so a failure leaves the current journal untouched.
+     *
+     * @param variableSets the variables of each set
+     * @param settings the settings of each set
+     * @throws IOException if the journal can't be rewritten
+     */
+    public void compact(Map<String, Map<String, Object>> variableSets, Map<String, VariableSetSettings> settings) throws IOException {
+        Path compacted = file.resolveSibling(file.getFileName() + ".compacting");
+        long compactedSize = 0;
+        try (DataOutputStream compactedOutput = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(compacted)))) {
+            for (Map.Entry<String, VariableSetSettings> entry : settings.entrySet()) {
+                compactedSize += write(compactedOutput, SETTINGS, entry.getKey(), VariableCodec.writer().writeValueAsBytes(entry.getValue()));
+            }
+            for (Map.Entry<String, Map<String, Object>> entry : variableSets.entrySet()) {
+                compactedSize += write(compactedOutput, SET, entry.getKey(), VariableCodec.writer().writeValueAsBytes(entry.getValue()));
+            }
+        } catch (IOException ioe) {
+            Files.deleteIfExists(compacted);
+            // don't retry on every update
+            nextCompaction = 2 * size;
+            throw ioe;
+        }
+
+        if (output != null) {
+            output.close();
+        }
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        size = compactedSize;
+        nextCompaction = Math.max(compactionThreshold, 2 * size);
+        output = openOutput();
+        // the compacted journal no longer holds the partially written record
+        failure = null;
+    }
+
+    /**
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+    }
+
+    /**
+     * Append a record to the journal
+     *
+     * @param operation the operation
+     * @param setName the variable set name, if any
+     * @param content the record content, if any
+     * @throws IOException if the record can't be written
+     */
+    private void append(byte operation, String setName, byte[] content) throws IOException {
+        if (failure != null) {
+            throw new IOException("Variable journal " + file + " holds a partially written record", failure);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write(new DataOutputStream(bytes), operation, setName, content);
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        try {
+            while (record.hasRemaining()) {
+                output.write(record);
+            }
+        } catch (IOException ioe) {
+            try {
+                output.truncate(size);
+            } catch (IOException tioe) {
+                ioe.addSuppressed(tioe);
+                failure = ioe;
+            }
+            throw ioe;
+        }
+        size += record.limit();
+    }
+
+    /**
+     * Write a record
+     *
+     * @param out the output to write the record to
+     * @param operation the operation
+     * @param setName the variable set name, if any
+     * @param content the record content, if any
+     * @return the number of bytes written
+     * @throws IOException if the record can't be written
+     */
+    private static int write(DataOutputStream out, byte operation, String setName, byte[] content) throws IOException {
+        byte[] name = setName == null ? new byte[0] : setName.getBytes(StandardCharsets.UTF_8);
+        int length = Integer.BYTES + name.length + (content == null ? 0 : content.length);
+        out.writeInt(length);
+        out.writeByte(operation);
+        out.writeInt(name.length);
+        out.write(name);
+        if (content != null) {
+            out.write(content);
+        }
+        return HEADER_SIZE + length;
+    }
+
+    /**
+     * @return the channel to append records to the journal
+     * @throws IOException if the journal can't be opened
+     */
+    private FileChannel openOutput() throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Replay the journal records
+     *
+     * @param channel the journal channel
+     * @param contents the contents to fill with the relevant records
+     * @return the position of the end of the last complete record
+     * @throws IOException if the journal can't be read
+     */
+    private long replay(FileChannel channel, Contents contents) throws IOException {
+        // First pass, find the position of the last full update of each set
+        Map<String, Long> lastSets = new HashMap<>();
+        Map<String, Long> lastSettings = new HashMap<>();
+        Map<String, Long> lastRemovals = new HashMap<>();
+        long[] lastReset = {-1};
+        long end = scan(channel, (position, operation, setName, record) -> {
+            switch (operation) {
+            case SET: lastSets.put(setName, position); break;
+            case SETTINGS: lastSettings.put(setName, position); break;
+            case PUT: case PATCH: break;
+            case REMOVE: lastRemovals.put(setName, position); break;
+            case RESET: lastReset[0] = position; break;
+            case BATCH:
+                // batches are few, their operations are registered as records at the batch position
+                for (VariableOperation batchOperation : readBatch(record)) {
+                    if (VariableOperation.SET.equals(batchOperation.getOp())) {
+                        lastSets.put(batchOperation.getSet(), position);
+                    } else if (VariableOperation.REMOVE.equals(batchOperation.getOp())) {
+                        lastRemovals.put(batchOperation.getSet(), position);
+                    }
+                }
+                break;
+            default: throw new IOException("Corrupted variable journal " + file + ": unknown operation " + operation + " at " + position);
+            }
+        });
+
+        // Second pass, only parse the relevant records
+        scan(channel, (position, operation, setName, record) -> {
+            if (position < lastReset[0] || position < lastRemovals.getOrDefault(setName, -1L)) {
+                return;
+            }
+            if (operation == SET && position == lastSets.get(setName)) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> variables = VariableCodec.variablesReader().readValue(new ByteBufferBackedInputStream(record));
+                contents.variableSets.put(setName, variables);
+            } else if ((operation == PUT || operation == PATCH) && position > lastSets.getOrDefault(setName, -1L)) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> changes = VariableCodec.variablesReader().readValue(new ByteBufferBackedInputStream(record));
+                Map<String, Object> variables = contents.variableSets.computeIfAbsent(setName, name -> new LinkedHashMap<>());
+                changes.forEach((key, value) -> {
+                    if (operation == PUT) {
+                        variables.put(key, value);
+                    } else if (value == null) {
+                        variables.remove(key);
+                    } else {
+                        variables.put(key, VariableSet.mergePatch(variables.get(key), value));
+                    }
+                });
+            } else if (operation == SETTINGS && position == lastSettings.get(setName)) {
+                contents.settings.put(setName, VariableCodec.settingsReader().readValue(new ByteBufferBackedInputStream(record)));
+            } else if (operation == BATCH) {
+                replayBatch(position, readBatch(record), contents, lastSets, lastRemovals);
+            }
+        });
+
+        return end;
+    }
+
+    /**
+     * Replay the relevant operations of a batch, in order
+     *
+     * @param position the batch position
+     * @param operations the batch operations
+     * @param contents the contents to update
+     * @param lastSets the position of the last full update of each set
+     * @param lastRemovals the position of the last removal of each set
+     */
+    private static void replayBatch(long position, List<VariableOperation> operations, Contents contents, Map<String, Long> lastSets,
+            Map<String, Long> lastRemovals) {
+        for (VariableOperation operation : operations) {
+            String setName = operation.getSet();
+            if (VariableOperation.REMOVE.equals(operation.getOp())) {
+                contents.variableSets.remove(setName);
+                contents.settings.remove(setName);
+            } else if (position < lastRemovals.getOrDefault(setName, -1L) || position < lastSets.getOrDefault(setName, -1L)) {
+                continue;
+            } else if (VariableOperation.SET.equals(operation.getOp())) {
+                contents.variableSets.put(setName, new LinkedHashMap<>(operation.getVariables()));
+            } else {
+                Map<String, Object> variables = contents.variableSets.computeIfAbsent(setName, name -> new LinkedHashMap<>());
+                operation.getPatch().forEach((key, value) -> {
+                    if (value == null) {
+                        variables.remove(key);
+                    } else {
+                        variables.put(key, VariableSet.mergePatch(variables.get(key), value));
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Parse the operations of a batch record
+     *
+     * @param record the batch record content
+     * @return the batch operations
+     * @throws IOException if the record is invalid
+     */
+    private static List<VariableOperation> readBatch(ByteBuffer record) throws IOException {
+        return VariableCodec.operationsReader().readValue(new ByteBufferBackedInputStream(record.duplicate()));
+    }
+
+    /**
+     * Read all the complete records of the journal, mapping it in windows of up to {@link #MAPPING_WINDOW} bytes (or
+     * the size of the record when a single record is larger).
+     *
+     * @param channel the journal channel
+     * @param visitor the visitor of each record
+     * @return the position of the end of the last complete record
+     * @throws IOException if the journal can't be read
+     */
+    private long scan(FileChannel channel, RecordVisitor visitor) throws IOException {
+        long fileSize = channel.size();
+        long position = 0;
+        while (position + HEADER_SIZE + Integer.BYTES <= fileSize) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPING_WINDOW, fileSize - position));
+            int consumed = visitRecords(window, position, visitor);
+            if (consumed == 0) {
+                // the next record doesn't fit in the window: either it's an incomplete last record or a larger one
+                long length = window.getInt(0);
+                if (length < Integer.BYTES || position + HEADER_SIZE + length > fileSize) {
+                    break;
+                }
+                consumed = visitRecords(channel.map(FileChannel.MapMode.READ_ONLY, position, HEADER_SIZE + length), position, visitor);
+            }
+            position += consumed;
+        }
+        return position;
+    }
+
+    /**
+     * Read the complete records of a journal region
+     *
+     * @param window the mapped journal region
+     * @param position the position of the region in the journal
+     * @param visitor the visitor of each record
+     * @return the number of bytes of complete records in the region
+     * @throws IOException if the journal is corrupted
+     */
+    private int visitRecords(ByteBuffer window, long position, RecordVisitor visitor) throws IOException {
+        int offset = 0;
+        while (offset + HEADER_SIZE + Integer.BYTES <= window.limit()) {
+            int length = window.getInt(offset);
+            if (length < Integer.BYTES || offset + HEADER_SIZE + (long) length > window.limit()) {
+                break;
+            }
+            byte operation = window.get(offset + Integer.BYTES);
+            int nameLength = window.getInt(offset + HEADER_SIZE);
+            if (nameLength < 0 || nameLength > length - Integer.BYTES) {
+                throw new IOException("Corrupted variable journal " + file + " at " + (position + offset));
+            }
+
+            int nameStart = offset + HEADER_SIZE + Integer.BYTES;
+            String setName = null;
+            if (operation != RESET) {
+                byte[] name = new byte[nameLength];
+                ByteBuffer nameBuffer = window.duplicate();
+                nameBuffer.position(nameStart);
+                nameBuffer.get(name);
+                setName = new String(name, StandardCharsets.UTF_8);
+            }
+
+            ByteBuffer content = window.duplicate();
+            content.limit(offset + HEADER_SIZE + length);
+            content.position(nameStart + nameLength);
+            visitor.visit(position + offset, operation, setName, content.slice());
+            offset += HEADER_SIZE + length;
+        }
+        return offset;
+    }
+
+    /**
+     * Visitor of the journal records
+     */
+    @FunctionalInterface
+    private interface RecordVisitor {
+
+        /**
+         * @param position the record position in the journal
+         * @param operation the record operation
+         * @param setName the variable set name, or null for a reset
+         * @param content the record content
+         * @throws IOException if the record is invalid
+         */
+        void visit(long position, byte operation, String setName, ByteBuffer content) throws IOException;
+    }
+
+    /**
+     * Repository contents rebuilt from the journal
+     */
+    public static class Contents {
+
+        /**
+         * The variables of each set
+         */
+        private final Map<String, Map<String, Object>> variableSets = new LinkedHashMap<>();
+
+        /**
+         * The settings of each set
+         */
+        private final Map<String, VariableSetSettings> settings = new LinkedHashMap<>();
+
+        /**
+         * @return the variables of each set
+         */
+        public Map<String, Map<String, Object>> getVariableSets() {
+            return variableSets;
+        }
+
+        /**
+         * @return the settings of each set
+         */
+        public Map<String, VariableSetSettings> getSettings() {
+            return settings;
+        }
+    }
+
+}
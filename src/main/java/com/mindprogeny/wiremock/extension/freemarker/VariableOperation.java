@@ -0,0 +1,152 @@
+/*
+ * VariableOperation.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker;
+
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Operation on a variable set, part of a batch applied atomically to the repository (see
+ * {@link FreemarkerVariableRepository#apply(java.util.List)})
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class VariableOperation {
+
+    /**
+     * Create or replace a variable set
+     */
+    public static final String SET = "set";
+
+    /**
+     * Apply a json merge patch to a variable set
+     */
+    public static final String PATCH = "patch";
+
+    /**
+     * Remove a variable set
+     */
+    public static final String REMOVE = "remove";
+
+    /**
+     * The operation, {@value #SET}, {@value #PATCH} or {@value #REMOVE}
+     */
+    private final String op;
+
+    /**
+     * The variable set name
+     */
+    private final String set;
+
+    /**
+     * The frozen variables of a {@value #SET} operation
+     */
+    private final Map<String, Object> variables;
+
+    /**
+     * The merge patch of a {@value #PATCH} operation
+     */
+    private final Map<String, Object> patch;
+
+    /**
+     * @param op the operation, {@value #SET}, {@value #PATCH} or {@value #REMOVE}
+     * @param set the variable set name
+     * @param variables the variables of a {@value #SET} operation
+     * @param patch the merge patch of a {@value #PATCH} operation
+     * @throws IllegalArgumentException if the operation is unknown or misses any of its arguments
+     */
+    @JsonCreator
+    public VariableOperation(@JsonProperty("op") String op, @JsonProperty("set") String set,
+            @JsonProperty("variables") Map<String, Object> variables, @JsonProperty("patch") Map<String, Object> patch) {
+        if (set == null) {
+            throw new IllegalArgumentException("Missing variable set name");
+        } else if (SET.equals(op) && variables == null) {
+            throw new IllegalArgumentException("Missing variables to set in \"" + set + "\"");
+        } else if (PATCH.equals(op) && patch == null) {
+            throw new IllegalArgumentException("Missing patch of \"" + set + "\"");
+        } else if (!SET.equals(op) && !PATCH.equals(op) && !REMOVE.equals(op)) {
+            throw new IllegalArgumentException("Unknown variable operation \"" + op + "\". Expected " + SET + ", " + PATCH + " or " + REMOVE);
+        }
+        this.op = op;
+        this.set = set;
+        this.variables = SET.equals(op) ? VariableSet.freeze(variables) : null;
+        this.patch = PATCH.equals(op) ? patch : null;
+    }
+
+    /**
+     * @param setName the variable set name
+     * @param variables the variables of the set
+     * @return the operation creating or replacing the set
+     */
+    public static VariableOperation set(String setName, Map<String, Object> variables) {
+        return new VariableOperation(SET, setName, variables, null);
+    }
+
+    /**
+     * @param setName the variable set name
+     * @param patch the merge patch
+     * @return the operation patching the set
+     */
+    public static VariableOperation patch(String setName, Map<String, Object> patch) {
+        return new VariableOperation(PATCH, setName, null, patch);
+    }
+
+    /**
+     * @param setName the variable set name
+     * @return the operation removing the set
+     */
+    public static VariableOperation remove(String setName) {
+        return new VariableOperation(REMOVE, setName, null, null);
+    }
+
+    /**
+     * @return the operation
+     */
+    public String getOp() {
+        return op;
+    }
+
+    /**
+     * @return the variable set name
+     */
+    public String getSet() {
+        return set;
+    }
+
+    /**
+     * @return the frozen variables of a {@value #SET} operation, null for other operations
+     */
+    public Map<String, Object> getVariables() {
+        return variables;
+    }
+
+    /**
+     * @return the merge patch of a {@value #PATCH} operation, null for other operations
+     */
+    public Map<String, Object> getPatch() {
+        return patch;
+    }
+
+}
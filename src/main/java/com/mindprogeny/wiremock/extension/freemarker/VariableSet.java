@@ -0,0 +1,579 @@
+/*
+ * VariableSet.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.mindprogeny.wiremock.extension.freemarker.model.VariableHashModel;
+
+/**
+ * Immutable snapshot of a published variable set.
+ * <p>
+ * The variables are deep copied into unmodifiable maps and lists (see {@link #freeze(Map)}) before the snapshot is
+ * created, so that templates can read them without any locking while newer versions of the set are being published.
+ * For the same reason, the freemarker model of the variables is only built once per published version and shared by
+ * all renders. The model of large heap sets wraps each value when it's first read, and the models of the versions
+ * derived from it keep the values already wrapped for the unchanged keys.
+ * <p>
+ * Heap variables are kept in a {@link PersistentVariables} map, so that a version derived from this one by changing a
+ * few keys (see {@link #patch(long, Map)}) shares all the other entries with it rather than copying the whole set.
+ * <p>
+ * The secondary indexes declared in the set {@link VariableSetSettings} are built when the snapshot is created, mapping
+ * the values of a field of each record (the top level values of the set) to the record key, and derived versions only
+ * update the index entries of the changed records.
+ * <p>
+ * Sets whose settings ask for {@value VariableSetSettings#OFF_HEAP_STORAGE} storage keep their variables in an
+ * {@link OffHeapVariables} map, and tabular sets with {@value VariableSetSettings#COLUMNAR_STORAGE} storage in a
+ * {@link ColumnarVariables} map. The freemarker model of those sets only wraps the values that are actually read. The
+ * keys changed in derived versions of those sets are kept aside in a {@link PatchedVariables} map, until there are
+ * enough of them to store the set again.
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public class VariableSet {
+
+    /**
+     * Size up to which the freemarker model of heap variables wraps all of them at once
+     */
+    private static final int EAGER_MODEL_SIZE = 1024;
+
+    /**
+     * The variable set name
+     */
+    private final String name;
+
+    /**
+     * The repository version at which this snapshot was published
+     */
+    private final long version;
+
+    /**
+     * The (unmodifiable) variables in the set
+     */
+    private final Map<String, Object> variables;
+
+    /**
+     * The settings the set was published with
+     */
+    private final VariableSetSettings settings;
+
+    /**
+     * Record keys by field value, for each indexed field
+     */
+    private final Map<String, Index> indexes;
+
+    /**
+     * The variables wrapped as a freemarker model, built on first use
+     */
+    private volatile VariableHashModel model;
+
+    /**
+     * @param name the variable set name
+     * @param version the repository version at which the set is published
+     * @param variables the already frozen variables in the set
+     * @param settings the set settings
+     */
+    VariableSet(String name, long version, Map<String, Object> variables, VariableSetSettings settings) {
+        this.name = name;
+        this.version = version;
+        this.variables = store(variables, settings);
+        this.settings = settings;
+        this.indexes = buildIndexes(variables, settings);
+    }
+
+    /**
+     * @param name the variable set name
+     * @param version the repository version at which the set is published
+     * @param variables the variables, already in their storage
+     * @param settings the set settings
+     * @param indexes the record keys by field value, for each indexed field
+     * @param model the freemarker model of the variables, null to build it on first use
+     */
+    private VariableSet(String name, long version, Map<String, Object> variables, VariableSetSettings settings, Map<String, Index> indexes,
+            VariableHashModel model) {
+        this.name = name;
+        this.version = version;
+        this.variables = variables;
+        this.settings = settings;
+        this.indexes = indexes;
+        this.model = model;
+    }
+
+    /**
+     * Derive a new version of the set with some variables replaced, added or removed. The unchanged variables (and their
+     * index entries) are shared with this version, so the cost depends on the number of changes rather than on the size
+     * of the set.
+     * 
+     * @param version the repository version at which the new version is published
+     * @param changes the frozen new value of each changed key, null to remove the key
+     * @return the new version of the set
+     */
+    VariableSet patch(long version, Map<String, Object> changes) {
+        Map<String, Object> current = variables == null ? PersistentVariables.EMPTY : variables;
+        Map<String, Object> written = changes;
+        Map<String, Object> patched;
+        if (current instanceof PersistentVariables) {
+            patched = ((PersistentVariables) current).with(changes);
+        } else {
+            if (storageOf(current) instanceof OffHeapVariables) {
+                // values written to off heap sets read the same as the stored ones
+                written = new LinkedHashMap<>();
+                for (Map.Entry<String, Object> change : changes.entrySet()) {
+                    written.put(change.getKey(), change.getValue() == null ? null : OffHeapVariables.normalize(change.getValue()));
+                }
+            }
+            PatchedVariables patchedStorage = PatchedVariables.of(current, written);
+            patched = patchedStorage.needsCompaction() ? compact(patchedStorage) : patchedStorage;
+        }
+
+        Map<String, Index> patchedIndexes = new HashMap<>();
+        for (Map.Entry<String, Index> index : indexes.entrySet()) {
+            patchedIndexes.put(index.getKey(), index.getValue().with(current, written));
+        }
+        // the values already wrapped for this version are kept for the unchanged keys
+        VariableHashModel previousModel = model;
+        VariableHashModel patchedModel = previousModel != null && isLazilyWrapped(patched) ? previousModel.derive(patched, changes.keySet()) : null;
+        return new VariableSet(name, version, patched, settings, indexes.isEmpty() ? indexes : Collections.unmodifiableMap(patchedIndexes), patchedModel);
+    }
+
+    /**
+     * Compute the changes of a json merge patch (RFC 7386) applied to a set of variables, only merging the patched keys
+     * 
+     * @param variables the variables to patch
+     * @param patch the merge patch
+     * @return the frozen new value of each changed key, null for the removed keys (see {@link #patch(long, Map)})
+     */
+    static Map<String, Object> changes(Map<String, Object> variables, Map<String, ?> patch) {
+        Map<String, Object> changes = new LinkedHashMap<>();
+        patch.forEach((key, value) -> {
+            if (value != null) {
+                changes.put(key, mergePatch(variables == null ? null : variables.get(key), value));
+            } else if (variables != null && variables.containsKey(key)) {
+                changes.put(key, null);
+            }
+        });
+        return changes;
+    }
+
+    /**
+     * @return the variable set name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the repository version at which this snapshot was published
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the (unmodifiable) variables in the set
+     */
+    public Map<String, Object> getVariables() {
+        return variables;
+    }
+
+    /**
+     * @return the settings the set was published with
+     */
+    public VariableSetSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Retrieve the secondary index of a record field
+     * 
+     * @param field the indexed field, as declared in the set settings
+     * @return the (unmodifiable) record keys by field value, or null if the field is not indexed
+     */
+    public Map<String, String> getIndex(String field) {
+        return indexes.get(field);
+    }
+
+    /**
+     * Retrieve the variables as a pre-wrapped freemarker model. The model is built the first time it's requested and
+     * reused until a new version of the set is published.
+     * 
+     * @return the freemarker model of the variables, or null if the set has no variables
+     */
+    public VariableHashModel getModel() {
+        VariableHashModel result = model;
+        if (result == null && variables != null) {
+            // concurrent first renders may build it more than once, but all of them produce an equivalent model
+            // large sets are wrapped as they're read, rather than all over again for every version
+            if (isLazilyWrapped(variables)) {
+                result = VariableHashModel.cached(variables);
+            } else {
+                result = isPlain(variables) ? new VariableHashModel(variables) : VariableHashModel.lazy(variables);
+            }
+            model = result;
+        }
+        return result;
+    }
+
+    /**
+     * Move the variables to the storage requested in the settings
+     * 
+     * @param variables the frozen variables, in any storage
+     * @param settings the set settings
+     * @return the variables in the requested storage
+     */
+    private static Map<String, Object> store(Map<String, Object> variables, VariableSetSettings settings) {
+        Map<String, Object> storage = storageOf(variables);
+        if (variables == null) {
+            return null;
+        } else if (isMapped(storage) && !settings.isColumnar()) {
+            // sets mapped from files are never copied to the heap
+            return variables;
+        } else if (settings.isOffHeap()) {
+            return storage instanceof OffHeapVariables ? variables : new OffHeapVariables(variables);
+        } else if (settings.isColumnar() && !(storage instanceof ColumnarVariables)) {
+            ColumnarVariables columnar = ColumnarVariables.of(variables);
+            // sets that are not tabular are kept in the heap
+            if (columnar != null) {
+                return columnar;
+            }
+        } else if (settings.isColumnar()) {
+            return variables;
+        }
+        return PersistentVariables.of(isPlain(variables) ? variables : freeze(variables));
+    }
+
+    /**
+     * Store the changes kept aside by patched variables, together with the unchanged variables
+     * 
+     * @param patched the patched variables
+     * @return the variables in the storage of the unchanged ones, or in the heap if they're no longer tabular
+     */
+    private static Map<String, Object> compact(PatchedVariables patched) {
+        if (patched.getStored() instanceof OffHeapVariables) {
+            return ((OffHeapVariables) patched.getStored()).rewrite(patched);
+        }
+        ColumnarVariables columnar = ColumnarVariables.of(patched);
+        return columnar != null ? columnar : PersistentVariables.of(freeze(patched));
+    }
+
+    /**
+     * @param variables the variables
+     * @return the storage of the variables, without the changes kept aside by patched variables
+     */
+    private static Map<String, Object> storageOf(Map<String, Object> variables) {
+        return variables instanceof PatchedVariables ? ((PatchedVariables) variables).getStored() : variables;
+    }
+
+    /**
+     * @param variables the variables
+     * @return true if the variables are heap variables too large to be wrapped at once, whose wrapped values are kept
+     *         as they are read
+     */
+    private static boolean isLazilyWrapped(Map<String, Object> variables) {
+        return isPlain(variables) && variables.size() > EAGER_MODEL_SIZE;
+    }
+
+    /**
+     * @param variables the variables
+     * @return true if the variables are memory mapped from a file
+     */
+    static boolean isMapped(Map<String, Object> variables) {
+        return variables instanceof OffHeapVariables && ((OffHeapVariables) variables).getFile() != null;
+    }
+
+    /**
+     * @param variables the variables
+     * @return true if the variables are plain java maps, rather than in a specific storage
+     */
+    private static boolean isPlain(Map<String, Object> variables) {
+        return !(variables instanceof OffHeapVariables) && !(variables instanceof ColumnarVariables) && !(variables instanceof PatchedVariables);
+    }
+
+    /**
+     * Build the secondary indexes declared in the settings. If more than one record has the same value, the one indexed
+     * first is returned.
+     * 
+     * @param variables the set variables
+     * @param settings the set settings
+     * @return the indexes by field
+     */
+    private static Map<String, Index> buildIndexes(Map<String, Object> variables, VariableSetSettings settings) {
+        if (variables == null || settings.getIndexes().isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        // a single pass over the records, so that off heap variables are only deserialized once
+        List<String> fields = settings.getIndexes();
+        List<Index> indexes = new ArrayList<>(fields.size());
+        List<Map<String, Object>> keys = new ArrayList<>(fields.size());
+        for (String field : fields) {
+            indexes.add(new Index(field, PersistentVariables.EMPTY));
+            keys.add(new LinkedHashMap<>());
+        }
+        variables.forEach((key, record) -> {
+            for (int i = 0; i < indexes.size(); i++) {
+                String value = indexes.get(i).valueOf(record);
+                if (value != null) {
+                    keys.get(i).put(value, Index.with(keys.get(i).get(value), key));
+                }
+            }
+        });
+
+        Map<String, Index> result = new HashMap<>();
+        for (int i = 0; i < indexes.size(); i++) {
+            result.put(fields.get(i), new Index(fields.get(i), PersistentVariables.of(keys.get(i))));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Create an unmodifiable deep copy of a set of variables
+     *
+     * @param variables the variables to copy
+     * @return the unmodifiable copy
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> freeze(Map<String, Object> variables) {
+        return (Map<String, Object>) freezeValue(variables);
+    }
+
+    /**
+     * Apply a json merge patch (RFC 7386) to a variable value, without modifying the value
+     *
+     * @param target the value to patch, may be null
+     * @param patch the patch: a map whose null values remove the matching entries of the target, and any other value
+     *            replacing the target
+     * @return the unmodifiable patched value
+     */
+    @SuppressWarnings("unchecked")
+    public static Object mergePatch(Object target, Object patch) {
+        if (!(patch instanceof Map)) {
+            return freezeValue(patch);
+        }
+
+        Map<Object, Object> result = target instanceof Map ? new LinkedHashMap<>((Map<Object, Object>) target) : new LinkedHashMap<>();
+        ((Map<?, ?>) patch).forEach((key, value) -> {
+            if (value == null) {
+                result.remove(key);
+            } else {
+                result.put(key, mergePatch(result.get(key), value));
+            }
+        });
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Secondary index of a record field, holding the keys of the records with each field value in the order they were
+     * indexed
+     */
+    private static final class Index extends AbstractMap<String, String> {
+
+        /**
+         * The indexed field, as declared in the set settings
+         */
+        private final String field;
+
+        /**
+         * The path of the field in the records, null for a plain field name
+         */
+        private final RequestObjectPath path;
+
+        /**
+         * The record key (or the array of record keys) of each field value
+         */
+        private final PersistentVariables keys;
+
+        /**
+         * @param field the indexed field, as declared in the set settings
+         * @param keys the record key (or the array of record keys) of each field value
+         */
+        private Index(String field, PersistentVariables keys) {
+            this(field, field.startsWith("/") ? RequestObjectPath.compile(field) : null, keys);
+        }
+
+        /**
+         * @param field the indexed field, as declared in the set settings
+         * @param path the path of the field in the records, null for a plain field name
+         * @param keys the record key (or the array of record keys) of each field value
+         */
+        private Index(String field, RequestObjectPath path, PersistentVariables keys) {
+            this.field = field;
+            this.path = path;
+            this.keys = keys;
+        }
+
+        /**
+         * Derive the index of a new version of the set, only updating the entries of the changed records
+         * 
+         * @param variables the variables of the indexed version
+         * @param changes the new value of each changed key, null for the removed keys
+         * @return the new index
+         */
+        private Index with(Map<String, Object> variables, Map<String, Object> changes) {
+            Map<String, Object> changed = new HashMap<>();
+            changes.forEach((key, record) -> {
+                String before = valueOf(variables.get(key));
+                String after = valueOf(record);
+                if (!Objects.equals(before, after)) {
+                    if (before != null) {
+                        changed.put(before, without(changed.containsKey(before) ? changed.get(before) : keys.get(before), key));
+                    }
+                    if (after != null) {
+                        changed.put(after, with(changed.containsKey(after) ? changed.get(after) : keys.get(after), key));
+                    }
+                }
+            });
+            return changed.isEmpty() ? this : new Index(field, path, keys.with(changed));
+        }
+
+        /**
+         * @param record a record
+         * @return the indexed field value of the record, null if it has none or it's not a single value
+         */
+        @SuppressWarnings("rawtypes")
+        private String valueOf(Object record) {
+            if (!(record instanceof Map)) {
+                return null;
+            }
+            Object value = path == null ? ((Map) record).get(field) : path.resolve((Map) record);
+            return value == null || value instanceof Map || value instanceof Collection ? null : value.toString();
+        }
+
+        /**
+         * @param indexed the record key or keys of a field value, null if there's none
+         * @param key a record key to add
+         * @return the record keys with the added key last
+         */
+        private static Object with(Object indexed, String key) {
+            if (indexed == null) {
+                return key;
+            } else if (indexed instanceof String) {
+                return new String[] { (String) indexed, key };
+            }
+            String[] keys = Arrays.copyOf((String[]) indexed, ((String[]) indexed).length + 1);
+            keys[keys.length - 1] = key;
+            return keys;
+        }
+
+        /**
+         * @param indexed the record key or keys of a field value
+         * @param key a record key to remove
+         * @return the other record keys, null if there are none left
+         */
+        private static Object without(Object indexed, String key) {
+            if (!(indexed instanceof String[])) {
+                return key.equals(indexed) ? null : indexed;
+            }
+            List<String> keys = new ArrayList<>(Arrays.asList((String[]) indexed));
+            keys.remove(key);
+            return keys.size() == 1 ? keys.get(0) : keys.toArray(new String[keys.size()]);
+        }
+
+        /**
+         * @param indexed the record key or keys of a field value
+         * @return the first record key
+         */
+        private static String first(Object indexed) {
+            return indexed instanceof String[] ? ((String[]) indexed)[0] : (String) indexed;
+        }
+
+        /**
+         * @see java.util.AbstractMap#get(java.lang.Object)
+         */
+        @Override
+        public String get(Object value) {
+            return first(keys.get(value));
+        }
+
+        /**
+         * @see java.util.AbstractMap#containsKey(java.lang.Object)
+         */
+        @Override
+        public boolean containsKey(Object value) {
+            return keys.containsKey(value);
+        }
+
+        /**
+         * @see java.util.AbstractMap#entrySet()
+         */
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            return new AbstractSet<Map.Entry<String, String>>() {
+
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    Iterator<Map.Entry<String, Object>> entries = keys.entrySet().iterator();
+                    return new Iterator<Map.Entry<String, String>>() {
+
+                        @Override
+                        public boolean hasNext() {
+                            return entries.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<String, String> next() {
+                            Map.Entry<String, Object> entry = entries.next();
+                            return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), first(entry.getValue()));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return keys.size();
+                }
+            };
+        }
+    }
+
+    /**
+     * Create an unmodifiable deep copy of a variable value
+     *
+     * @param value the value to copy
+     * @return the unmodifiable copy of maps and collections, or the value itself for any other object
+     */
+    @SuppressWarnings("rawtypes")
+    static Object freezeValue(Object value) {
+        if (value instanceof Map) {
+            Map<Object, Object> copy = new LinkedHashMap<>();
+            ((Map<?, ?>) value).forEach((key, element) -> copy.put(key, freezeValue(element)));
+            return Collections.unmodifiableMap(copy);
+        } else if (value instanceof Collection) {
+            List<Object> copy = new ArrayList<>(((Collection) value).size());
+            ((Collection<?>) value).forEach(element -> copy.add(freezeValue(element)));
+            return Collections.unmodifiableList(copy);
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * VariableSetBuilder.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builder of a variable set from its entries, for imports that don't have the whole set in memory at once.
+ * <p>
+ * Each value is frozen (see {@link VariableSet#freeze(Map)}) when it's added, so the built set can be published
+ * without being frozen again (see {@link FreemarkerVariableRepository#setVariableSet(String, VariableSetBuilder)}).
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public class VariableSetBuilder {
+
+    /**
+     * The frozen entries
+     */
+    private Map<String, Object> variables = new LinkedHashMap<>();
+
+    /**
+     * Add an entry to the set, replacing any previous entry with the same key
+     *
+     * @param key the entry key
+     * @param value the entry value
+     * @return this builder
+     * @throws IllegalStateException if the set was already built
+     */
+    public VariableSetBuilder put(String key, Object value) {
+        if (variables == null) {
+            throw new IllegalStateException("Variable set already built");
+        }
+        variables.put(key, VariableSet.freezeValue(value));
+        return this;
+    }
+
+    /**
+     * @return the number of entries in the set
+     */
+    public int size() {
+        return variables == null ? 0 : variables.size();
+    }
+
+    /**
+     * Build the set, after which no more entries can be added
+     *
+     * @return the frozen variables
+     * @throws IllegalStateException if the set was already built
+     */
+    Map<String, Object> build() {
+        if (variables == null) {
+            throw new IllegalStateException("Variable set already built");
+        }
+        Map<String, Object> result = Collections.unmodifiableMap(variables);
+        variables = null;
+        return result;
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * VariableSetSettings.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Settings of a variable set, which are kept by the repository across updates of the set variables
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public class VariableSetSettings {
+
+    /**
+     * Settings of a set for which none were defined
+     */
+    public static final VariableSetSettings DEFAULT = new VariableSetSettings(null);
+
+    /**
+     * Storage of the variables as java objects in the heap
+     */
+    public static final String HEAP_STORAGE = "heap";
+
+    /**
+     * Storage of the variables serialized outside of the heap (see {@link OffHeapVariables})
+     */
+    public static final String OFF_HEAP_STORAGE = "off-heap";
+
+    /**
+     * Storage of tabular variables column-wise (see {@link ColumnarVariables})
+     */
+    public static final String COLUMNAR_STORAGE = "columnar";
+
+    /**
+     * The record fields to index. A field may be a json pointer to reach nested values.
+     */
+    private final List<String> indexes;
+
+    /**
+     * Where the variables are stored, {@value #HEAP_STORAGE}, {@value #OFF_HEAP_STORAGE} or {@value #COLUMNAR_STORAGE}
+     */
+    private final String storage;
+
+    /**
+     * Seconds after their last update at which variables are evicted, 0 if they don't expire
+     */
+    private final long ttl;
+
+    /**
+     * Maximum number of variables in the set, 0 if unbounded
+     */
+    private final int maxEntries;
+
+    /**
+     * Maximum size of the variables in the set, as json, 0 if unbounded
+     */
+    private final long maxBytes;
+
+    /**
+     * @param indexes The record fields to index, may be null
+     */
+    public VariableSetSettings(List<String> indexes) {
+        this(indexes, null);
+    }
+
+    /**
+     * @param indexes The record fields to index, may be null
+     * @param storage Where the variables are stored, {@value #HEAP_STORAGE} (default), {@value #OFF_HEAP_STORAGE} or
+     *            {@value #COLUMNAR_STORAGE}
+     * @throws IllegalArgumentException if the storage is unknown
+     */
+    public VariableSetSettings(List<String> indexes, String storage) {
+        this(indexes, storage, 0, 0, 0);
+    }
+
+    /**
+     * @param indexes The record fields to index, may be null
+     * @param storage Where the variables are stored, {@value #HEAP_STORAGE} (default), {@value #OFF_HEAP_STORAGE} or
+     *            {@value #COLUMNAR_STORAGE}
+     * @param ttl Seconds after their last update at which variables are evicted, 0 if they don't expire
+     * @param maxEntries Maximum number of variables in the set, 0 if unbounded
+     * @param maxBytes Maximum size of the variables in the set, as json, 0 if unbounded
+     * @throws IllegalArgumentException if the storage is unknown or any of the limits is negative
+     */
+    @JsonCreator
+    public VariableSetSettings(@JsonProperty("indexes") List<String> indexes, @JsonProperty("storage") String storage,
+            @JsonProperty("ttl") long ttl, @JsonProperty("maxEntries") int maxEntries, @JsonProperty("maxBytes") long maxBytes) {
+        if (ttl < 0 || maxEntries < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("Variable set ttl, maxEntries and maxBytes can't be negative");
+        }
+        if (storage != null && !HEAP_STORAGE.equals(storage) && !OFF_HEAP_STORAGE.equals(storage) && !COLUMNAR_STORAGE.equals(storage)) {
+            throw new IllegalArgumentException("Unknown variable storage \"" + storage + "\". Expected " + HEAP_STORAGE + ", "
+                    + OFF_HEAP_STORAGE + " or " + COLUMNAR_STORAGE);
+        }
+        this.indexes = indexes == null ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(indexes));
+        this.storage = storage == null ? HEAP_STORAGE : storage;
+        this.ttl = ttl;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the record fields to index
+     */
+    public List<String> getIndexes() {
+        return indexes;
+    }
+
+    /**
+     * @return where the variables are stored
+     */
+    public String getStorage() {
+        return storage;
+    }
+
+    /**
+     * @return seconds after their last update at which variables are evicted, 0 if they don't expire
+     */
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @return maximum number of variables in the set, 0 if unbounded
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return maximum size of the variables in the set, as json, 0 if unbounded
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return true if variables of the set may be evicted, because they expire or the set is bounded
+     */
+    @JsonIgnore
+    public boolean isEvicting() {
+        return ttl > 0 || maxEntries > 0 || maxBytes > 0;
+    }
+
+    /**
+     * @return true if the variables are stored outside of the heap
+     */
+    @JsonIgnore
+    public boolean isOffHeap() {
+        return OFF_HEAP_STORAGE.equals(storage);
+    }
+
+    /**
+     * @return true if tabular variables are stored column-wise
+     */
+    @JsonIgnore
+    public boolean isColumnar() {
+        return COLUMNAR_STORAGE.equals(storage);
+    }
+
+}
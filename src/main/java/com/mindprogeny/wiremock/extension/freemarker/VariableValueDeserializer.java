@@ -0,0 +1,139 @@
+/*
+ * VariableValueDeserializer.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonTokenId;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.deser.std.UntypedObjectDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+
+/**
+ * Deserializer of variable values which deduplicates the repeated values of large variable sets while they're read.
+ * <p>
+ * Text values go through a bounded intern table, so that repeated values (statuses, country codes...) share a single
+ * instance, and small integers are taken from a table of canonical instances. Map keys don't need it, as the json
+ * parser already canonicalizes field names.
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public class VariableValueDeserializer extends UntypedObjectDeserializer {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of slots in the intern table
+     */
+    private static final int INTERN_TABLE_SIZE = 1 << 14;
+
+    /**
+     * Longest text value to intern, longer values are unlikely to be repeated
+     */
+    private static final int MAX_INTERNED_LENGTH = 64;
+
+    /**
+     * Smallest canonical integer
+     */
+    private static final int MIN_CANONICAL_INT = -1024;
+
+    /**
+     * Largest canonical integer
+     */
+    private static final int MAX_CANONICAL_INT = 16 * 1024;
+
+    /**
+     * The canonical integers
+     */
+    private static final Integer[] CANONICAL_INTS = new Integer[MAX_CANONICAL_INT - MIN_CANONICAL_INT + 1];
+
+    static {
+        for (int i = 0; i < CANONICAL_INTS.length; i++) {
+            CANONICAL_INTS[i] = MIN_CANONICAL_INT + i;
+        }
+    }
+
+    /**
+     * The intern table, shared by all imports, a direct mapped cache where a value replaces any other value with the
+     * same slot. Races between imports at most lose some deduplication, as strings are immutable.
+     */
+    private static final String[] internTable = new String[INTERN_TABLE_SIZE];
+
+    /**
+     * 
+     */
+    public VariableValueDeserializer() {
+        super(null, null);
+    }
+
+    /**
+     * Create a module which deserializes all untyped values with this deserializer
+     *
+     * @return the jackson module to register in object mappers reading variables
+     */
+    public static Module module() {
+        return new SimpleModule("variable-values").addDeserializer(Object.class, new VariableValueDeserializer());
+    }
+
+    /**
+     * @see com.fasterxml.jackson.databind.deser.std.UntypedObjectDeserializer#deserialize(com.fasterxml.jackson.core.JsonParser, com.fasterxml.jackson.databind.DeserializationContext)
+     */
+    @Override
+    public Object deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        switch (parser.getCurrentTokenId()) {
+        case JsonTokenId.ID_STRING:
+            return intern(parser.getText());
+        case JsonTokenId.ID_NUMBER_INT:
+            if (parser.getNumberType() == JsonParser.NumberType.INT) {
+                int value = parser.getIntValue();
+                if (value >= MIN_CANONICAL_INT && value <= MAX_CANONICAL_INT) {
+                    return CANONICAL_INTS[value - MIN_CANONICAL_INT];
+                }
+            }
+            return super.deserialize(parser, context);
+        default:
+            return super.deserialize(parser, context);
+        }
+    }
+
+    /**
+     * Find the canonical instance of a text value
+     *
+     * @param value the text value
+     * @return the instance of the value in the intern table, or the value itself
+     */
+    static String intern(String value) {
+        if (value.length() > MAX_INTERNED_LENGTH) {
+            return value;
+        }
+        int hash = value.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & (INTERN_TABLE_SIZE - 1);
+        String interned = internTable[slot];
+        if (value.equals(interned)) {
+            return interned;
+        }
+        internTable[slot] = value;
+        return value;
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * ApplyVariableOperations.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker.extension.variable.task;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.List;
+
+import com.github.tomakehurst.wiremock.admin.AdminTask;
+import com.github.tomakehurst.wiremock.admin.model.PathParams;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.core.Admin;
+import com.github.tomakehurst.wiremock.http.Request;
+import com.github.tomakehurst.wiremock.http.ResponseDefinition;
+import com.mindprogeny.wiremock.extension.freemarker.FreemarkerVariableRepository;
+import com.mindprogeny.wiremock.extension.freemarker.VariableCodec;
+import com.mindprogeny.wiremock.extension.freemarker.VariableOperation;
+
+/**
+ * Atomic batch of operations on variable sets. All the operations are validated before any of them is applied, and
+ * they are published together as a single version of the repository.
+ * 
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public class ApplyVariableOperations implements AdminTask {
+
+    /**
+     * @see com.github.tomakehurst.wiremock.admin.AdminTask#execute(com.github.tomakehurst.wiremock.core.Admin, com.github.tomakehurst.wiremock.http.Request, com.github.tomakehurst.wiremock.admin.model.PathParams)
+     */
+    @Override
+    public ResponseDefinition execute(Admin paramAdmin, Request request, PathParams paramPathParams) {
+        try {
+            List<VariableOperation> operations = VariableCodec.operationsReader().readValue(request.getBody());
+            FreemarkerVariableRepository.apply(operations);
+        } catch (IOException ioe) {
+            return ResponseDefinitionBuilder.responseDefinition()
+                                            .withStatus(HttpURLConnection.HTTP_BAD_REQUEST)
+                                            .withStatusMessage("Variable operations message in incorrect format.")
+                                            .withHeader("content-type", "text/text")
+                                            .withBody("Expected format is:\n[\n  {\"op\": \"set\", \"set\": \"<set>\", \"variables\": {\"<key>\": {\"<var>\":\"<value>\"}}},\n"
+                                                    + "  {\"op\": \"patch\", \"set\": \"<set>\", \"patch\": {\"<key>\": {\"<var>\":\"<value>\"}}},\n"
+                                                    + "  {\"op\": \"remove\", \"set\": \"<set>\"}\n]")
+                                            .build();
+        }
+        
+        return ResponseDefinitionBuilder.responseDefinition()
+                .withStatus(HttpURLConnection.HTTP_OK)
+                .build();
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * ConditionalRead.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker.extension.variable.task;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.http.QueryParameter;
+import com.github.tomakehurst.wiremock.http.Request;
+import com.github.tomakehurst.wiremock.http.ResponseDefinition;
+import com.mindprogeny.wiremock.extension.freemarker.FreemarkerVariableRepository;
+
+/**
+ * Conditional read of a versioned part of the repository. The version is exposed as an <code>ETag</code>, and:
+ * <ul>
+ * <li><code>If-None-Match</code>: answers <code>304</code> without serializing anything when the version didn't
+ * change</li>
+ * <li><code>wait</code>: together with <code>If-None-Match</code>, waits up to the given number of seconds for the
+ * version to change before answering (a long poll)</li>
+ * </ul>
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+final class ConditionalRead {
+
+    /**
+     * Header with the version of the returned variables
+     */
+    static final String ETAG_HEADER = "ETag";
+
+    /**
+     * Header with the versions the client already has
+     */
+    static final String IF_NONE_MATCH_HEADER = "If-None-Match";
+
+    /**
+     * Longest wait allowed for a long poll, in seconds, as the request holds a server thread meanwhile
+     */
+    static final int MAX_WAIT = 60;
+
+    /**
+     * Not to be instantiated
+     */
+    private ConditionalRead() {
+    }
+
+    /**
+     * Read a versioned value, waiting for it to change if the request asks for a long poll and the client already has
+     * its current version
+     *
+     * @param request the read request
+     * @param read reads the value, given the repository version read right before (so that the value is at least as
+     *            recent)
+     * @param etag the entity tag of a value, or null if the value has no version
+     * @param <T> the value type
+     * @return the current value
+     * @throws IllegalArgumentException if the wait parameter is not a valid number
+     */
+    static <T> T read(Request request, LongFunction<T> read, Function<T, String> etag) {
+        long timeout = TimeUnit.SECONDS.toMillis(waitParameter(request));
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (true) {
+            long version = FreemarkerVariableRepository.getVersion();
+            T value = read.apply(version);
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0 || !isNotModified(request, etag.apply(value))) {
+                return value;
+            }
+            try {
+                FreemarkerVariableRepository.awaitVersion(version, remaining);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return value;
+            }
+        }
+    }
+
+    /**
+     * @param version a repository or variable set version
+     * @return the entity tag of the version
+     */
+    static String etag(long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * Check if the client already has the current version, according to the <code>If-None-Match</code> header
+     *
+     * @param request the read request
+     * @param etag the entity tag of the current version, null if there's no current version
+     * @return true if the entity tag matches any of the ones in the header
+     */
+    static boolean isNotModified(Request request, String etag) {
+        String ifNoneMatch = request.getHeader(IF_NONE_MATCH_HEADER);
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            // weak comparison, as the versions identify the content
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if ("*".equals(candidate) || etag.equals(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param etag the entity tag of the current version
+     * @return the response telling the client its version is current
+     */
+    static ResponseDefinition notModified(String etag) {
+        return ResponseDefinitionBuilder.responseDefinition()
+                                        .withStatus(HttpURLConnection.HTTP_NOT_MODIFIED)
+                                        .withHeader(ETAG_HEADER, etag)
+                                        .build();
+    }
+
+    /**
+     * @param request the read request
+     * @return the requested wait, in seconds, capped to {@value #MAX_WAIT}
+     * @throws IllegalArgumentException if the parameter is not a non negative number
+     */
+    private static int waitParameter(Request request) {
+        QueryParameter parameter = request.queryParameter("wait");
+        if (parameter == null || !parameter.isPresent()) {
+            return 0;
+        }
+        int value = Integer.parseInt(parameter.firstValue());
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative wait");
+        }
+        return Math.min(value, MAX_WAIT);
+    }
+
+}
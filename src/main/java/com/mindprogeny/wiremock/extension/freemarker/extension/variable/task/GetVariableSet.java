@@ -21,9 +21,9 @@ package com.mindprogeny.wiremock.extension.freemarker.extension.variable.task;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.HttpURLConnection;
+import java.util.Map;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.tomakehurst.wiremock.admin.AdminTask;
 import com.github.tomakehurst.wiremock.admin.model.PathParams;
 import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
@@ -31,6 +31,8 @@ import com.github.tomakehurst.wiremock.core.Admin;
 import com.github.tomakehurst.wiremock.http.Request;
 import com.github.tomakehurst.wiremock.http.ResponseDefinition;
 import com.mindprogeny.wiremock.extension.freemarker.FreemarkerVariableRepository;
+import com.mindprogeny.wiremock.extension.freemarker.VariableCodec;
+import com.mindprogeny.wiremock.extension.freemarker.VariableSet;
 
 /**
  * 
@@ -40,23 +42,41 @@ import com.mindprogeny.wiremock.extension.freemarker.FreemarkerVariableRepositor
  */
 public class GetVariableSet implements AdminTask {
     
-    /**
-     * Object Mapper to serialize maps
-     */
-    private ObjectMapper jsonMapper = new ObjectMapper();
-
     /**
      * @see com.github.tomakehurst.wiremock.admin.AdminTask#execute(com.github.tomakehurst.wiremock.core.Admin, com.github.tomakehurst.wiremock.http.Request, com.github.tomakehurst.wiremock.admin.model.PathParams)
      */
     @Override
-    public ResponseDefinition execute(Admin paramAdmin, Request paramRequest, PathParams pathParams) {
+    public ResponseDefinition execute(Admin paramAdmin, Request request, PathParams pathParams) {
         
+        String setName = pathParams.get("set");
+        String etag;
+        Map<String, ?> variables;
+        Object selection;
         try {
+            VariableSet snapshot = ConditionalRead.read(request, version -> FreemarkerVariableRepository.getSnapshot(setName),
+                    set -> set == null ? null : ConditionalRead.etag(set.getVersion()));
+            etag = snapshot == null ? null : ConditionalRead.etag(snapshot.getVersion());
+            if (ConditionalRead.isNotModified(request, etag)) {
+                return ConditionalRead.notModified(etag);
+            }
+            variables = snapshot == null ? null : snapshot.getVariables();
+            selection = variables == null ? null : VariablePage.select(variables, request);
+        } catch (IllegalArgumentException iae) {
             return ResponseDefinitionBuilder.responseDefinition()
+                                            .withStatus(HttpURLConnection.HTTP_BAD_REQUEST)
+                                            .withStatusMessage("Invalid page parameters.")
+                                            .withHeader("content-type", "text/text")
+                                            .withBody("Expected offset, limit and wait to be non negative numbers")
+                                            .build();
+        }
+
+        try {
+            ResponseDefinitionBuilder response = ResponseDefinitionBuilder.responseDefinition()
                                             .withStatus(HttpURLConnection.HTTP_OK)
                                             .withHeader("content-type", "application/json")
-                                            .withBody(jsonMapper.writeValueAsString(FreemarkerVariableRepository.getVariableSet(pathParams.get("set"))))
-                                            .build();
+                                            .withHeader(VariablePage.TOTAL_COUNT_HEADER, String.valueOf(variables == null ? 0 : variables.size()))
+                                            .withBody(VariableCodec.writer().writeValueAsBytes(selection));
+            return (etag == null ? response : response.withHeader(ConditionalRead.ETAG_HEADER, etag)).build();
         } catch (JsonProcessingException jpe) {
             StringWriter writer = new StringWriter();
             jpe.printStackTrace(new PrintWriter(writer));
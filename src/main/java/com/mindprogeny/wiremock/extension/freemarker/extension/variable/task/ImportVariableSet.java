@@ -0,0 +1,83 @@
+/*
+ * ImportVariableSet.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker.extension.variable.task;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.github.tomakehurst.wiremock.admin.AdminTask;
+import com.github.tomakehurst.wiremock.admin.model.PathParams;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.core.Admin;
+import com.github.tomakehurst.wiremock.http.Request;
+import com.github.tomakehurst.wiremock.http.ResponseDefinition;
+import com.mindprogeny.wiremock.extension.freemarker.FreemarkerVariableRepository;
+import com.mindprogeny.wiremock.extension.freemarker.VariableCodec;
+import com.mindprogeny.wiremock.extension.freemarker.VariableSetBuilder;
+
+/**
+ * Streaming import of a variable set.
+ * <p>
+ * The request body is a stream of json objects (one per line, as NDJSON, or just one after the other) whose fields are
+ * the set entries. The body is parsed incrementally, one entry at a time, and the set is only published once the
+ * whole stream is read, so a malformed stream leaves the current set untouched.
+ * 
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public class ImportVariableSet implements AdminTask {
+    
+    /**
+     * @see com.github.tomakehurst.wiremock.admin.AdminTask#execute(com.github.tomakehurst.wiremock.core.Admin, com.github.tomakehurst.wiremock.http.Request, com.github.tomakehurst.wiremock.admin.model.PathParams)
+     */
+    @Override
+    public ResponseDefinition execute(Admin paramAdmin, Request request, PathParams pathParams) {
+        VariableSetBuilder builder = new VariableSetBuilder();
+        try (JsonParser parser = VariableCodec.parser(request.getBody())) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new JsonParseException(parser, "Expected a json object with variable set entries");
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String key = parser.getCurrentName();
+                    parser.nextToken();
+                    builder.put(key, VariableCodec.valueReader().readValue(parser));
+                }
+            }
+        } catch (IOException ioe) {
+            return ResponseDefinitionBuilder.responseDefinition()
+                                            .withStatus(HttpURLConnection.HTTP_BAD_REQUEST)
+                                            .withStatusMessage("Variable set stream in incorrect format.")
+                                            .withHeader("content-type", "text/text")
+                                            .withBody("Expected format is a stream of:\n{\"<key>\": {\"<var>\":\"<value>\"}}\n")
+                                            .build();
+        }
+
+        FreemarkerVariableRepository.setVariableSet(pathParams.get("set"), builder);
+        return ResponseDefinitionBuilder.responseDefinition()
+                .withStatus(HttpURLConnection.HTTP_OK)
+                .build();
+    }
+
+}
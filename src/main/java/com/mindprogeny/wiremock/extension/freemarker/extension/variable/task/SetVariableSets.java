@@ -24,7 +24,6 @@ import java.io.StringWriter;
 import java.net.HttpURLConnection;
 import java.util.Map;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.tomakehurst.wiremock.admin.AdminTask;
 import com.github.tomakehurst.wiremock.admin.model.PathParams;
 import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
@@ -32,6 +31,7 @@ import com.github.tomakehurst.wiremock.core.Admin;
 import com.github.tomakehurst.wiremock.http.Request;
 import com.github.tomakehurst.wiremock.http.ResponseDefinition;
 import com.mindprogeny.wiremock.extension.freemarker.FreemarkerVariableRepository;;
+import com.mindprogeny.wiremock.extension.freemarker.VariableCodec;
 
 /**
  * 
@@ -41,11 +41,6 @@ import com.mindprogeny.wiremock.extension.freemarker.FreemarkerVariableRepositor
  */
 public class SetVariableSets  implements AdminTask {
     
-    /**
-     * Object Mapper to serialize maps
-     */
-    private ObjectMapper jsonMapper = new ObjectMapper();
-
     /**
      * @see com.github.tomakehurst.wiremock.admin.AdminTask#execute(com.github.tomakehurst.wiremock.core.Admin, com.github.tomakehurst.wiremock.http.Request, com.github.tomakehurst.wiremock.admin.model.PathParams)
      */
@@ -53,7 +48,7 @@ public class SetVariableSets  implements AdminTask {
     @SuppressWarnings("unchecked")
     public ResponseDefinition execute(Admin paramAdmin, Request request, PathParams paramPathParams) {
         try {
-            Map<String, Object> variableSetRequest = jsonMapper.readValue(request.getBodyAsString(), Map.class);
+            Map<String, Object> variableSetRequest = VariableCodec.variablesReader().readValue(request.getBody());
             variableSetRequest.forEach((key,value) -> FreemarkerVariableRepository.setVariableSet(key, (Map<String, Object>) value));
         } catch (IOException ioe) {
             StringWriter writer = new StringWriter();
@@ -0,0 +1,125 @@
+/*
+ * VariablePage.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker.extension.variable.task;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.tomakehurst.wiremock.http.QueryParameter;
+import com.github.tomakehurst.wiremock.http.Request;
+
+/**
+ * Selection of the part of a variable map requested by the query parameters of a read request:
+ * <ul>
+ * <li><code>keys</code>: only list the keys</li>
+ * <li><code>after</code>: start after the given key (a cursor over the keys)</li>
+ * <li><code>offset</code>: skip the given number of entries</li>
+ * <li><code>limit</code>: return at most the given number of entries</li>
+ * </ul>
+ * Entries outside the page are skipped without reading their values, so that storages which deserialize values on
+ * access don't have to materialize the whole set.
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+final class VariablePage {
+
+    /**
+     * Header with the total number of entries, when a page is requested
+     */
+    static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+
+    /**
+     * Not to be instantiated
+     */
+    private VariablePage() {
+    }
+
+    /**
+     * Select the requested part of a variable map
+     *
+     * @param variables the variable map
+     * @param request the read request
+     * @return the map itself if no part was requested, the requested entries or the list of the requested keys
+     * @throws IllegalArgumentException if the offset or limit are not valid numbers
+     */
+    static Object select(Map<String, ?> variables, Request request) {
+        boolean keysOnly = isPresent(request, "keys") && !"false".equals(request.queryParameter("keys").firstValue());
+        String after = isPresent(request, "after") ? request.queryParameter("after").firstValue() : null;
+        int offset = intParameter(request, "offset", 0);
+        int limit = intParameter(request, "limit", Integer.MAX_VALUE);
+        if (!keysOnly && after == null && offset == 0 && limit == Integer.MAX_VALUE) {
+            return variables;
+        }
+
+        Iterator<String> keys = variables.keySet().iterator();
+        if (after != null) {
+            while (keys.hasNext() && !after.equals(keys.next())) {
+                // skip up to the cursor
+            }
+        }
+        for (int i = 0; i < offset && keys.hasNext(); i++) {
+            keys.next();
+        }
+
+        List<String> pageKeys = new ArrayList<>();
+        while (pageKeys.size() < limit && keys.hasNext()) {
+            pageKeys.add(keys.next());
+        }
+        if (keysOnly) {
+            return pageKeys;
+        }
+        Map<String, Object> page = new LinkedHashMap<>();
+        pageKeys.forEach(key -> page.put(key, variables.get(key)));
+        return page;
+    }
+
+    /**
+     * @param request the read request
+     * @param name the query parameter name
+     * @return true if the request has the query parameter
+     */
+    private static boolean isPresent(Request request, String name) {
+        QueryParameter parameter = request.queryParameter(name);
+        return parameter != null && parameter.isPresent();
+    }
+
+    /**
+     * @param request the read request
+     * @param name the query parameter name
+     * @param defaultValue the value when the parameter is not present
+     * @return the non negative parameter value
+     * @throws IllegalArgumentException if the parameter is not a non negative number
+     */
+    private static int intParameter(Request request, String name, int defaultValue) {
+        if (!isPresent(request, name)) {
+            return defaultValue;
+        }
+        int value = Integer.parseInt(request.queryParameter(name).firstValue());
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative " + name);
+        }
+        return value;
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * CachedDirective.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker.model;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collection;
+import java.util.Map;
+
+import com.mindprogeny.wiremock.extension.freemarker.BoundedCache;
+import com.mindprogeny.wiremock.extension.freemarker.VariableSet;
+
+import freemarker.core.Environment;
+import freemarker.template.TemplateDirectiveBody;
+import freemarker.template.TemplateDirectiveModel;
+import freemarker.template.TemplateException;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateNumberModel;
+import freemarker.template.utility.DeepUnwrap;
+
+/**
+ * Template directive keeping the output of its body, so that expensive sections of a template are only rendered once
+ * for each key: <code>&lt;@cached key=request.parameters.id sets="customers"&gt;...&lt;/@cached&gt;</code>
+ * <p>
+ * The output is cached by the <code>key</code> value and by the version of the variable sets in <code>sets</code> (a
+ * name, a list of names or names separated by commas) the body depends on, in the variable sets pinned for the render.
+ * Each use of the directive in a template has its own cache, holding at most <code>size</code> outputs (1000 by
+ * default, set by the first render). Only the output is cached, anything else the body does (like assigning variables)
+ * only happens when it's rendered.
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public class CachedDirective implements TemplateDirectiveModel {
+
+    /**
+     * Default maximum number of outputs cached for each use of the directive
+     */
+    public static final int DEFAULT_SIZE = 1000;
+
+    /**
+     * Directive parameter with the cache key
+     */
+    private static final String KEY_PARAMETER = "key";
+
+    /**
+     * Directive parameter with the variable sets the body depends on
+     */
+    private static final String SETS_PARAMETER = "sets";
+
+    /**
+     * Directive parameter with the maximum number of cached outputs
+     */
+    private static final String SIZE_PARAMETER = "size";
+
+    /**
+     * Separator of the key inputs, not expected in any of them
+     */
+    private static final char SEPARATOR = '\u0000';
+
+    /**
+     * @see freemarker.template.TemplateDirectiveModel#execute(freemarker.core.Environment, java.util.Map,
+     *      freemarker.template.TemplateModel[], freemarker.template.TemplateDirectiveBody)
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void execute(Environment environment, Map parameters, TemplateModel[] loopVariables, TemplateDirectiveBody body)
+            throws TemplateException, IOException {
+        for (Object parameter : parameters.keySet()) {
+            if (!KEY_PARAMETER.equals(parameter) && !SETS_PARAMETER.equals(parameter) && !SIZE_PARAMETER.equals(parameter)) {
+                throw new TemplateModelException("Unknown parameter \"" + parameter + "\". Expecting key, sets and size");
+            }
+        }
+        if (!parameters.containsKey(KEY_PARAMETER)) {
+            throw new TemplateModelException("Missing \"key\" parameter");
+        }
+        if (loopVariables.length > 0) {
+            throw new TemplateModelException("No loop variables expected");
+        }
+        if (body == null) {
+            return;
+        }
+
+        BoundedCache<String, String> cache = cache(environment, (TemplateModel) parameters.get(SIZE_PARAMETER));
+        String key = key((TemplateModel) parameters.get(KEY_PARAMETER), (TemplateModel) parameters.get(SETS_PARAMETER));
+        String output = cache.get(key);
+        if (output == null) {
+            StringWriter writer = new StringWriter();
+            body.render(writer);
+            output = writer.toString();
+            cache.put(key, output);
+        }
+        environment.getOut().write(output);
+    }
+
+    /**
+     * Retrieve the cache of the current use of the directive
+     * 
+     * @param environment the render environment
+     * @param size the size parameter, or null if not given
+     * @return the cache
+     * @throws TemplateModelException if the cache can't be created
+     */
+    @SuppressWarnings("unchecked")
+    private BoundedCache<String, String> cache(Environment environment, TemplateModel size) throws TemplateModelException {
+        int maxEntries;
+        if (size == null) {
+            maxEntries = DEFAULT_SIZE;
+        } else if (size instanceof TemplateNumberModel) {
+            maxEntries = ((TemplateNumberModel) size).getAsNumber().intValue();
+        } else {
+            throw new TemplateModelException("Expected a number as \"size\" parameter");
+        }
+
+        try {
+            // the cache lives with the compiled template, and is dropped along with it
+            return (BoundedCache<String, String>) environment.getCurrentDirectiveCallPlace()
+                    .getOrCreateCustomData(this, () -> new BoundedCache<>(maxEntries));
+        } catch (Exception e) {
+            throw new TemplateModelException("Unable to create the cache of size " + maxEntries, e);
+        }
+    }
+
+    /**
+     * Build the cache key of an output
+     * 
+     * @param key the key parameter
+     * @param sets the sets parameter, or null if not given
+     * @return the cache key
+     * @throws TemplateModelException if the parameters can't be unwrapped
+     */
+    private static String key(TemplateModel key, TemplateModel sets) throws TemplateModelException {
+        StringBuilder result = new StringBuilder();
+        result.append(key == null ? null : DeepUnwrap.unwrap(key));
+        Object setNames = sets == null ? null : DeepUnwrap.unwrap(sets);
+        if (setNames instanceof Collection) {
+            for (Object setName : (Collection<?>) setNames) {
+                appendVersion(result, String.valueOf(setName).trim());
+            }
+        } else if (setNames != null) {
+            for (String setName : setNames.toString().split(",")) {
+                appendVersion(result, setName.trim());
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Append the version of a variable set to a cache key
+     * 
+     * @param key the cache key
+     * @param setName the variable set name
+     */
+    private static void appendVersion(StringBuilder key, String setName) {
+        VariableSet variableSet = VariableIndexMethod.snapshot(setName);
+        key.append(SEPARATOR).append(variableSet == null ? -1 : variableSet.getVersion());
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * LayeredHashModel.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import freemarker.ext.util.WrapperTemplateModel;
+import freemarker.template.AdapterTemplateModel;
+import freemarker.template.SimpleScalar;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateHashModelEx2;
+import freemarker.template.TemplateModel;
+
+/**
+ * Hash model over an ordered list of variable maps, in which each lookup falls through from the first map to the last.
+ * Nested maps are layered the same way, so a record in the first map only needs the fields it overrides.
+ * <p>
+ * Nothing is copied to build the model: the layers are the shared models of the variable sets, and the merged keys are
+ * only computed when the model is iterated.
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public class LayeredHashModel implements TemplateHashModelEx2, AdapterTemplateModel, WrapperTemplateModel {
+
+    /**
+     * The layers, from the first to be searched to the last
+     */
+    private final List<VariableHashModel> layers;
+
+    /**
+     * The keys of all the layers, computed on first use
+     */
+    private volatile Set<String> keys;
+
+    /**
+     * @param layers the layers, from the first to be searched to the last
+     */
+    private LayeredHashModel(List<VariableHashModel> layers) {
+        this.layers = layers;
+    }
+
+    /**
+     * Layer variable models
+     *
+     * @param layers the models, from the first to be searched to the last
+     * @return the single model if there's only one, the layered model otherwise, or null if there are none
+     */
+    public static TemplateHashModelEx2 of(List<VariableHashModel> layers) {
+        if (layers.isEmpty()) {
+            return null;
+        }
+        return layers.size() == 1 ? layers.get(0) : new LayeredHashModel(layers);
+    }
+
+    /**
+     * @see freemarker.template.TemplateHashModel#get(java.lang.String)
+     */
+    @Override
+    public TemplateModel get(String key) {
+        TemplateModel first = null;
+        List<VariableHashModel> nested = null;
+        for (VariableHashModel layer : layers) {
+            TemplateModel value = layer.get(key);
+            if (value == null) {
+                continue;
+            } else if (first == null) {
+                if (!(value instanceof VariableHashModel)) {
+                    return value;
+                }
+                first = value;
+            } else if (value instanceof VariableHashModel) {
+                if (nested == null) {
+                    nested = new ArrayList<>(layers.size());
+                    nested.add((VariableHashModel) first);
+                }
+                nested.add((VariableHashModel) value);
+            }
+        }
+        return nested == null ? first : new LayeredHashModel(nested);
+    }
+
+    /**
+     * @see freemarker.template.TemplateHashModel#isEmpty()
+     */
+    @Override
+    public boolean isEmpty() {
+        return layers.stream().allMatch(VariableHashModel::isEmpty);
+    }
+
+    /**
+     * @see freemarker.template.TemplateHashModelEx#size()
+     */
+    @Override
+    public int size() {
+        return keySet().size();
+    }
+
+    /**
+     * @see freemarker.template.TemplateHashModelEx#keys()
+     */
+    @Override
+    public TemplateCollectionModel keys() {
+        List<TemplateModel> wrappedKeys = new ArrayList<>(size());
+        keySet().forEach(key -> wrappedKeys.add(new SimpleScalar(key)));
+        return new VariableModels.ModelCollection(wrappedKeys);
+    }
+
+    /**
+     * @see freemarker.template.TemplateHashModelEx#values()
+     */
+    @Override
+    public TemplateCollectionModel values() {
+        List<TemplateModel> wrappedValues = new ArrayList<>(size());
+        keySet().forEach(key -> wrappedValues.add(get(key)));
+        return new VariableModels.ModelCollection(wrappedValues);
+    }
+
+    /**
+     * @see freemarker.template.TemplateHashModelEx2#keyValuePairIterator()
+     */
+    @Override
+    public KeyValuePairIterator keyValuePairIterator() {
+        Iterator<String> keyIterator = keySet().iterator();
+        return new KeyValuePairIterator() {
+
+            @Override
+            public boolean hasNext() {
+                return keyIterator.hasNext();
+            }
+
+            @Override
+            public KeyValuePair next() {
+                String key = keyIterator.next();
+                TemplateModel value = get(key);
+                return new KeyValuePair() {
+
+                    @Override
+                    public TemplateModel getKey() {
+                        return new SimpleScalar(key);
+                    }
+
+                    @Override
+                    public TemplateModel getValue() {
+                        return value;
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @return the keys of all the layers, in the order they are first found
+     */
+    @SuppressWarnings("unchecked")
+    private Set<String> keySet() {
+        Set<String> result = keys;
+        if (result == null) {
+            result = new LinkedHashSet<>();
+            for (VariableHashModel layer : layers) {
+                result.addAll(((Map<String, Object>) layer.getWrappedObject()).keySet());
+            }
+            keys = result = Collections.unmodifiableSet(result);
+        }
+        return result;
+    }
+
+    /**
+     * @see freemarker.template.AdapterTemplateModel#getAdaptedObject(java.lang.Class)
+     */
+    @Override
+    public Object getAdaptedObject(Class<?> hint) {
+        return getWrappedObject();
+    }
+
+    /**
+     * Merge the layers into a single map, for code expecting the variables as java objects
+     *
+     * @see freemarker.ext.util.WrapperTemplateModel#getWrappedObject()
+     */
+    @Override
+    public Object getWrappedObject() {
+        Map<String, Object> merged = new LinkedHashMap<>();
+        for (String key : keySet()) {
+            TemplateModel value = get(key);
+            merged.put(key, value instanceof WrapperTemplateModel ? ((WrapperTemplateModel) value).getWrappedObject() : unwrap(key));
+        }
+        return Collections.unmodifiableMap(merged);
+    }
+
+    /**
+     * @param key a key of the layers
+     * @return the value of the first layer that has the key
+     */
+    @SuppressWarnings("unchecked")
+    private Object unwrap(String key) {
+        for (VariableHashModel layer : layers) {
+            Map<String, Object> variables = (Map<String, Object>) layer.getWrappedObject();
+            if (variables.get(key) != null) {
+                return variables.get(key);
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,301 @@
+/*
+ * VariableHashModel.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import freemarker.ext.util.WrapperTemplateModel;
+import freemarker.template.AdapterTemplateModel;
+import freemarker.template.SimpleScalar;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateHashModelEx2;
+import freemarker.template.TemplateModel;
+
+/**
+ * Immutable hash model of a variable map, with all its entries wrapped when the model is created.
+ * <p>
+ * Lazy models (see {@link #lazy(Map)}) instead wrap each value when it's read, for maps which are too large, or too
+ * expensive to read, to be wrapped at once. Cached lazy models (see {@link #cached(Map)}) keep the wrapped values, so
+ * that each value is only wrapped once, and the models derived from them for newer versions of the map (see
+ * {@link #derive(Map, Collection)}) keep the wrapped values of the unchanged keys.
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public class VariableHashModel implements TemplateHashModelEx2, AdapterTemplateModel, WrapperTemplateModel {
+
+    /**
+     * The original variable map
+     */
+    private final Map<String, Object> variables;
+
+    /**
+     * The wrapped values by key, null for lazy models
+     */
+    private final Map<String, TemplateModel> models;
+
+    /**
+     * The wrapped keys, null for lazy models
+     */
+    private final List<TemplateModel> keys;
+
+    /**
+     * The wrapped values of cached lazy models by key, with the value each of them was wrapped from, shared with the
+     * models derived from this one; null for other models
+     */
+    private final ConcurrentMap<String, WrappedValue> wrapped;
+
+    /**
+     * @param variables the variable map to wrap
+     */
+    public VariableHashModel(Map<String, Object> variables) {
+        this.variables = variables;
+        this.wrapped = null;
+        Map<String, TemplateModel> wrappedValues = new LinkedHashMap<>();
+        List<TemplateModel> wrappedKeys = new ArrayList<>(variables.size());
+        for (Entry<String, Object> entry : variables.entrySet()) {
+            wrappedValues.put(entry.getKey(), VariableModels.wrap(entry.getValue()));
+            wrappedKeys.add(new SimpleScalar(entry.getKey()));
+        }
+        this.models = Collections.unmodifiableMap(wrappedValues);
+        this.keys = Collections.unmodifiableList(wrappedKeys);
+    }
+
+    /**
+     * @param variables the variable map to wrap
+     * @param wrapped the wrapped values to keep the values in as they are read, null to wrap them on every read
+     */
+    private VariableHashModel(Map<String, Object> variables, ConcurrentMap<String, WrappedValue> wrapped) {
+        this.variables = variables;
+        this.models = null;
+        this.keys = null;
+        this.wrapped = wrapped;
+    }
+
+    /**
+     * Create a model which only wraps the values as they are read
+     *
+     * @param variables the variable map to wrap
+     * @return the lazy model
+     */
+    public static VariableHashModel lazy(Map<String, Object> variables) {
+        return new VariableHashModel(variables, null);
+    }
+
+    /**
+     * Create a model which only wraps the values as they are read, and keeps them for the next reads
+     *
+     * @param variables the variable map to wrap, whose values are never modified
+     * @return the cached lazy model
+     */
+    public static VariableHashModel cached(Map<String, Object> variables) {
+        return new VariableHashModel(variables, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Create a cached lazy model of a newer version of the variables, reusing the values already wrapped by this model
+     * for the unchanged keys
+     *
+     * @param variables the newer version of the variables, whose values are never modified
+     * @param changed the keys replaced, added or removed since the version wrapped by this model
+     * @return the cached lazy model
+     */
+    public VariableHashModel derive(Map<String, Object> variables, Collection<String> changed) {
+        if (wrapped == null) {
+            return cached(variables);
+        }
+        // values are only reused while they're the same instance, so that only removed keys need to be dropped
+        changed.forEach(wrapped::remove);
+        return new VariableHashModel(variables, wrapped);
+    }
+
+    /**
+     * @see freemarker.template.TemplateHashModel#get(java.lang.String)
+     */
+    @Override
+    public TemplateModel get(String key) {
+        return models == null ? wrap(key, variables.get(key)) : models.get(key);
+    }
+
+    /**
+     * @see freemarker.template.TemplateHashModel#isEmpty()
+     */
+    @Override
+    public boolean isEmpty() {
+        return variables.isEmpty();
+    }
+
+    /**
+     * @see freemarker.template.TemplateHashModelEx#size()
+     */
+    @Override
+    public int size() {
+        return variables.size();
+    }
+
+    /**
+     * @see freemarker.template.TemplateHashModelEx#keys()
+     */
+    @Override
+    public TemplateCollectionModel keys() {
+        return new VariableModels.ModelCollection(keys == null ? wrapAll(variables.keySet()) : keys);
+    }
+
+    /**
+     * @see freemarker.template.TemplateHashModelEx#values()
+     */
+    @Override
+    public TemplateCollectionModel values() {
+        if (models != null) {
+            return new VariableModels.ModelCollection(models.values());
+        }
+        List<TemplateModel> wrappedValues = new ArrayList<>(variables.size());
+        variables.forEach((key, value) -> wrappedValues.add(wrap(key, value)));
+        return new VariableModels.ModelCollection(wrappedValues);
+    }
+
+    /**
+     * @see freemarker.template.TemplateHashModelEx2#keyValuePairIterator()
+     */
+    @Override
+    public KeyValuePairIterator keyValuePairIterator() {
+        Collection<TemplateModel> wrappedKeys = keys;
+        Collection<TemplateModel> wrappedValues = models == null ? null : models.values();
+        if (models == null) {
+            // a single pass over the entries, so that both lists line up
+            wrappedKeys = new ArrayList<>(variables.size());
+            wrappedValues = new ArrayList<>(variables.size());
+            for (Entry<String, Object> entry : variables.entrySet()) {
+                wrappedKeys.add(new SimpleScalar(entry.getKey()));
+                wrappedValues.add(wrap(entry.getKey(), entry.getValue()));
+            }
+        }
+        Iterator<TemplateModel> keyIterator = wrappedKeys.iterator();
+        Iterator<TemplateModel> valueIterator = wrappedValues.iterator();
+        return new KeyValuePairIterator() {
+
+            @Override
+            public boolean hasNext() {
+                return keyIterator.hasNext();
+            }
+
+            @Override
+            public KeyValuePair next() {
+                TemplateModel key = keyIterator.next();
+                TemplateModel value = valueIterator.next();
+                return new KeyValuePair() {
+
+                    @Override
+                    public TemplateModel getKey() {
+                        return key;
+                    }
+
+                    @Override
+                    public TemplateModel getValue() {
+                        return value;
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Wrap the keys of a lazy model, for the iterations over its keys
+     *
+     * @param elements the keys to wrap
+     * @return the wrapped keys
+     */
+    private static Collection<TemplateModel> wrapAll(Collection<?> elements) {
+        List<TemplateModel> wrapped = new ArrayList<>(elements.size());
+        elements.forEach(element -> wrapped.add(VariableModels.wrap(element)));
+        return wrapped;
+    }
+
+    /**
+     * Wrap a value read from a lazy model, or reuse the model already wrapped from the same value
+     *
+     * @param key the key of the value
+     * @param value the value
+     * @return the wrapped value, or null if the value is null
+     */
+    private TemplateModel wrap(String key, Object value) {
+        if (wrapped == null || value == null) {
+            return VariableModels.wrap(value);
+        }
+        WrappedValue cached = wrapped.get(key);
+        if (cached == null || cached.value != value) {
+            // concurrent reads may wrap it more than once, but all of them produce an equivalent model
+            cached = new WrappedValue(value, VariableModels.wrap(value));
+            wrapped.put(key, cached);
+        }
+        return cached.model;
+    }
+
+    /**
+     * @see freemarker.template.AdapterTemplateModel#getAdaptedObject(java.lang.Class)
+     */
+    @Override
+    public Object getAdaptedObject(Class<?> hint) {
+        return variables;
+    }
+
+    /**
+     * @see freemarker.ext.util.WrapperTemplateModel#getWrappedObject()
+     */
+    @Override
+    public Object getWrappedObject() {
+        return variables;
+    }
+
+    /**
+     * Value wrapped by a cached lazy model
+     */
+    private static final class WrappedValue {
+
+        /**
+         * The value that was wrapped
+         */
+        private final Object value;
+
+        /**
+         * The wrapped value
+         */
+        private final TemplateModel model;
+
+        /**
+         * @param value the value that was wrapped
+         * @param model the wrapped value
+         */
+        private WrappedValue(Object value, TemplateModel model) {
+            this.value = value;
+            this.model = model;
+        }
+    }
+
+}
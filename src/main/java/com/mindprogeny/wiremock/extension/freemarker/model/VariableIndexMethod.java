@@ -0,0 +1,105 @@
+/*
+ * VariableIndexMethod.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker.model;
+
+import java.util.List;
+import java.util.Map;
+
+import com.mindprogeny.wiremock.extension.freemarker.FreemarkerVariableRepository;
+import com.mindprogeny.wiremock.extension.freemarker.VariableSet;
+
+import freemarker.core.Environment;
+import freemarker.template.TemplateMethodModelEx;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.utility.DeepUnwrap;
+
+/**
+ * Template method to find a record of a variable set through one of the set secondary indexes:
+ * <code>varIndex("&lt;set&gt;", "&lt;field&gt;", &lt;value&gt;)</code>
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public class VariableIndexMethod implements TemplateMethodModelEx {
+
+    /**
+     * Name of the environment custom attribute holding the variable sets pinned for the render. When it's not set, the
+     * current version of the repository is used.
+     */
+    public static final String SNAPSHOTS_ATTRIBUTE = "com.mindprogeny.wiremock.extension.freemarker.snapshots";
+
+    /**
+     * @see freemarker.template.TemplateMethodModelEx#exec(java.util.List)
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Object exec(List arguments) throws TemplateModelException {
+        if (arguments.size() != 3) {
+            throw new TemplateModelException("Expecting 3 arguments: variable set name, indexed field and field value");
+        }
+
+        String setName = argument(arguments, 0);
+        String field = argument(arguments, 1);
+        String value = argument(arguments, 2);
+
+        VariableSet variableSet = snapshot(setName);
+        if (variableSet == null || value == null) {
+            return null;
+        }
+
+        Map<String, String> index = variableSet.getIndex(field);
+        if (index == null) {
+            throw new TemplateModelException("Field \"" + field + "\" is not indexed in variable set \"" + setName + "\"");
+        }
+
+        String key = index.get(value);
+        return key == null ? null : variableSet.getModel().get(key);
+    }
+
+    /**
+     * Retrieve a variable set from the version of the repository pinned for the current render
+     * 
+     * @param setName the variable set name
+     * @return the variable set snapshot, or null if the set doesn't exist
+     */
+    @SuppressWarnings("unchecked")
+    static VariableSet snapshot(String setName) {
+        Environment environment = Environment.getCurrentEnvironment();
+        Object snapshots = environment == null ? null : environment.getCustomAttribute(SNAPSHOTS_ATTRIBUTE);
+        return snapshots == null ? FreemarkerVariableRepository.getSnapshot(setName) : ((Map<String, VariableSet>) snapshots).get(setName);
+    }
+
+    /**
+     * Retrieve a method argument as a string
+     * 
+     * @param arguments the method arguments
+     * @param index the argument position
+     * @return the argument as a string or null if the argument is null
+     * @throws TemplateModelException if the argument can't be unwrapped
+     */
+    @SuppressWarnings("rawtypes")
+    private static String argument(List arguments, int index) throws TemplateModelException {
+        TemplateModel argument = (TemplateModel) arguments.get(index);
+        Object value = argument == null ? null : DeepUnwrap.unwrap(argument);
+        return value == null ? null : value.toString();
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * VariableModels.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker.model;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapperBuilder;
+import freemarker.template.ObjectWrapper;
+import freemarker.template.SimpleNumber;
+import freemarker.template.SimpleScalar;
+import freemarker.template.TemplateBooleanModel;
+import freemarker.template.TemplateCollectionModelEx;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateModelIterator;
+
+/**
+ * Factory of immutable, pre-wrapped freemarker models for variable values.
+ * <p>
+ * Unlike the default object wrapper, which wraps nested maps and lists again on every access, the whole value graph is
+ * wrapped once and the resulting models can be shared by any number of concurrent renders.
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public final class VariableModels {
+
+    /**
+     * Wrapper for any value that isn't a json type (only possible when sets are created through the java api)
+     */
+    private static final ObjectWrapper FALLBACK_WRAPPER = new DefaultObjectWrapperBuilder(Configuration.VERSION_2_3_23).build();
+
+    /**
+     * Not to be instantiated
+     */
+    private VariableModels() {
+    }
+
+    /**
+     * Wrap a variable value, and any values it contains, into immutable template models
+     *
+     * @param value the value to wrap
+     * @return the template model, or null if the value is null
+     */
+    @SuppressWarnings("unchecked")
+    public static TemplateModel wrap(Object value) {
+        if (value == null) {
+            return null;
+        } else if (value instanceof TemplateModel) {
+            return (TemplateModel) value;
+        } else if (value instanceof String) {
+            return new SimpleScalar((String) value);
+        } else if (value instanceof Number) {
+            return new SimpleNumber((Number) value);
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? TemplateBooleanModel.TRUE : TemplateBooleanModel.FALSE;
+        } else if (value instanceof Map) {
+            return new VariableHashModel((Map<String, Object>) value);
+        } else if (value instanceof Collection) {
+            return new VariableSequenceModel((Collection<Object>) value);
+        }
+        try {
+            return FALLBACK_WRAPPER.wrap(value);
+        } catch (TemplateModelException tme) {
+            return new SimpleScalar(value.toString());
+        }
+    }
+
+    /**
+     * Collection model over already wrapped models
+     */
+    static class ModelCollection implements TemplateCollectionModelEx {
+
+        /**
+         * The wrapped models
+         */
+        private final Collection<TemplateModel> models;
+
+        /**
+         * @param models the wrapped models
+         */
+        ModelCollection(Collection<TemplateModel> models) {
+            this.models = models;
+        }
+
+        /**
+         * @see freemarker.template.TemplateCollectionModel#iterator()
+         */
+        @Override
+        public TemplateModelIterator iterator() {
+            Iterator<TemplateModel> iterator = models.iterator();
+            return new TemplateModelIterator() {
+
+                @Override
+                public TemplateModel next() {
+                    return iterator.next();
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+            };
+        }
+
+        /**
+         * @see freemarker.template.TemplateCollectionModelEx#size()
+         */
+        @Override
+        public int size() {
+            return models.size();
+        }
+
+        /**
+         * @see freemarker.template.TemplateCollectionModelEx#isEmpty()
+         */
+        @Override
+        public boolean isEmpty() {
+            return models.isEmpty();
+        }
+    }
+
+}
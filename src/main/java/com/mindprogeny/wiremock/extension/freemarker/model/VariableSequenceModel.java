@@ -0,0 +1,91 @@
+/*
+ * VariableSequenceModel.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker.model;
+
+import java.util.Collection;
+
+import freemarker.ext.util.WrapperTemplateModel;
+import freemarker.template.AdapterTemplateModel;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateSequenceModel;
+
+/**
+ * Immutable sequence model of a variable list, with all its elements wrapped when the model is created
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public class VariableSequenceModel implements TemplateSequenceModel, AdapterTemplateModel, WrapperTemplateModel {
+
+    /**
+     * The original variable list
+     */
+    private final Collection<Object> variables;
+
+    /**
+     * The wrapped elements
+     */
+    private final TemplateModel[] models;
+
+    /**
+     * @param variables the variable list to wrap
+     */
+    public VariableSequenceModel(Collection<Object> variables) {
+        this.variables = variables;
+        this.models = new TemplateModel[variables.size()];
+        int i = 0;
+        for (Object variable : variables) {
+            models[i++] = VariableModels.wrap(variable);
+        }
+    }
+
+    /**
+     * @see freemarker.template.TemplateSequenceModel#get(int)
+     */
+    @Override
+    public TemplateModel get(int index) {
+        return index < 0 || index >= models.length ? null : models[index];
+    }
+
+    /**
+     * @see freemarker.template.TemplateSequenceModel#size()
+     */
+    @Override
+    public int size() {
+        return models.length;
+    }
+
+    /**
+     * @see freemarker.template.AdapterTemplateModel#getAdaptedObject(java.lang.Class)
+     */
+    @Override
+    public Object getAdaptedObject(Class<?> hint) {
+        return variables;
+    }
+
+    /**
+     * @see freemarker.ext.util.WrapperTemplateModel#getWrappedObject()
+     */
+    @Override
+    public Object getWrappedObject() {
+        return variables;
+    }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * VariableUpdateMethod.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker.model;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.mindprogeny.wiremock.extension.freemarker.FreemarkerVariableRepository;
+
+import freemarker.template.SimpleNumber;
+import freemarker.template.TemplateBooleanModel;
+import freemarker.template.TemplateMethodModelEx;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.utility.DeepUnwrap;
+
+/**
+ * Template methods atomically updating a variable of a set, so that stubs can keep state (sequences, balances, status
+ * transitions...) without racing with concurrent requests:
+ * <ul>
+ * <li><code>varIncrement("&lt;set&gt;", "&lt;key&gt;"[, &lt;delta&gt;])</code>: adds the delta (1 by default) to an
+ * integer variable, and returns the new value</li>
+ * <li><code>varCompareAndSet("&lt;set&gt;", "&lt;key&gt;", [&lt;expected&gt;, ]&lt;value&gt;)</code>: replaces the
+ * variable only if it has the expected value (or doesn't exist, when no expected value is given), and returns whether
+ * it was replaced</li>
+ * <li><code>varGetAndPut("&lt;set&gt;", "&lt;key&gt;", &lt;value&gt;)</code>: replaces the variable, and returns its
+ * previous value</li>
+ * </ul>
+ * The updates are published immediately, but the <code>var</code> variables of the current render keep showing the
+ * version of the repository the render started with.
+ *
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public class VariableUpdateMethod implements TemplateMethodModelEx {
+
+    /**
+     * The atomic updates available to templates
+     */
+    public enum Operation {
+        INCREMENT, COMPARE_AND_SET, GET_AND_PUT
+    }
+
+    /**
+     * The update applied by this method
+     */
+    private final Operation operation;
+
+    /**
+     * @param operation the update applied by this method
+     */
+    public VariableUpdateMethod(Operation operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * @see freemarker.template.TemplateMethodModelEx#exec(java.util.List)
+     */
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Object exec(List arguments) throws TemplateModelException {
+        if (arguments.size() < 2 || arguments.get(0) == null || arguments.get(1) == null) {
+            throw new TemplateModelException("Expecting the variable set name and the variable key as first arguments");
+        }
+        String setName = argument(arguments, 0).toString();
+        String key = argument(arguments, 1).toString();
+
+        try {
+            switch (operation) {
+            case INCREMENT:
+                Object delta = arguments.size() > 2 ? argument(arguments, 2) : 1;
+                if (arguments.size() > 3 || !(delta instanceof Number)) {
+                    throw new TemplateModelException("Expecting 2 or 3 arguments: variable set name, variable key and optional numeric delta");
+                }
+                return new SimpleNumber(FreemarkerVariableRepository.incrementVariable(setName, key, ((Number) delta).longValue()));
+            case COMPARE_AND_SET:
+                if (arguments.size() == 3) {
+                    return bool(FreemarkerVariableRepository.compareAndSetVariable(setName, key, null, value(arguments, 2)));
+                } else if (arguments.size() == 4) {
+                    return bool(FreemarkerVariableRepository.compareAndSetVariable(setName, key, argument(arguments, 2), value(arguments, 3)));
+                }
+                throw new TemplateModelException("Expecting 3 or 4 arguments: variable set name, variable key, optional expected value and new value");
+            default:
+                if (arguments.size() != 3) {
+                    throw new TemplateModelException("Expecting 3 arguments: variable set name, variable key and new value");
+                }
+                return VariableModels.wrap(FreemarkerVariableRepository.putVariable(setName, key, value(arguments, 2)));
+            }
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            throw new TemplateModelException("Unable to update variable \"" + key + "\" of set \"" + setName + "\": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @param result a boolean result
+     * @return the boolean model
+     */
+    private static TemplateBooleanModel bool(boolean result) {
+        return result ? TemplateBooleanModel.TRUE : TemplateBooleanModel.FALSE;
+    }
+
+    /**
+     * Retrieve the new value of a variable from the method arguments
+     * 
+     * @param arguments the method arguments
+     * @param index the argument position
+     * @return the value to store
+     * @throws TemplateModelException if the argument is missing or can't be unwrapped
+     */
+    @SuppressWarnings("rawtypes")
+    private static Object value(List arguments, int index) throws TemplateModelException {
+        Object value = argument(arguments, index);
+        if (value == null) {
+            throw new TemplateModelException("Missing value of argument " + (index + 1));
+        }
+        return value;
+    }
+
+    /**
+     * Retrieve a method argument as a json value
+     * 
+     * @param arguments the method arguments
+     * @param index the argument position
+     * @return the unwrapped argument, or null if the argument is null
+     * @throws TemplateModelException if the argument can't be unwrapped
+     */
+    @SuppressWarnings("rawtypes")
+    private static Object argument(List arguments, int index) throws TemplateModelException {
+        TemplateModel argument = (TemplateModel) arguments.get(index);
+        return argument == null ? null : toJson(DeepUnwrap.unwrap(argument));
+    }
+
+    /**
+     * Convert an unwrapped template value to the types produced by the json parser, so that values stored by templates
+     * compare equal to the values read back from the journal
+     * 
+     * @param value the unwrapped value
+     * @return the value with integral numbers as integers or longs, and other numbers as doubles
+     */
+    private static Object toJson(Object value) {
+        if (value instanceof Number && !(value instanceof Integer) && !(value instanceof Long) && !(value instanceof Double)) {
+            BigDecimal number = new BigDecimal(value.toString());
+            try {
+                BigInteger integer = number.toBigIntegerExact();
+                if (integer.bitLength() < 32) {
+                    return integer.intValue();
+                }
+                return integer.bitLength() < 64 ? (Object) integer.longValue() : integer;
+            } catch (ArithmeticException ae) {
+                return number.doubleValue();
+            }
+        } else if (value instanceof Map) {
+            Map<Object, Object> result = new LinkedHashMap<>();
+            ((Map<?, ?>) value).forEach((key, element) -> result.put(key, toJson(element)));
+            return result;
+        } else if (value instanceof Collection) {
+            List<Object> result = new ArrayList<>();
+            ((Collection<?>) value).forEach(element -> result.add(toJson(element)));
+            return result;
+        }
+        return value;
+    }
+
+}
@@ -20,7 +20,9 @@ package com.mindprogeny.wiremock.extension.freemarker;
 
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import com.github.tomakehurst.wiremock.WireMockServer;
 import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
 import com.jayway.restassured.response.Response;
@@ -33,13 +35,17 @@ import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
 import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
 import static com.jayway.restassured.RestAssured.given;
 import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertEquals;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
 
 /**
  * Integration Test for {@link FreemarkerResponseTransformer}
@@ -59,6 +65,12 @@ public class FreemarkerResponseTransformerIntegrationTest {
                                                                          .extensions(new FreemarkerResponseTransformer())
                                                                          .extensions(new FreemarkerVariableRepositoryManager()));
 
+    /**
+     * Folder for the stub files
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     /**
      * Test simple xml request parser and usage in response
      * 
@@ -660,4 +672,922 @@ public class FreemarkerResponseTransformerIntegrationTest {
                .body("profession", equalTo("matado"));
     }
 
+    /**
+     * Test choosing the variable sub-set with a key taken from the parsed request object
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testVariablesWithRequestObjectKey() throws Exception {
+        wiremock.stubFor(post(urlEqualTo("/test-var")).willReturn(aResponse()
+                .withStatus(200)
+                .withHeader("content-type", "application/json")
+                .withBody(new String(Files.readAllBytes(Paths.get(getClass().getResource("/stub/json-response-stub-with-variables.json").toURI())),StandardCharsets.UTF_8))
+                .withTransformers("freemarker-transformer")
+                .withTransformerParameter("variable-set", "test")
+                .withTransformerParameter("variable-key-source", "object")
+                .withTransformerParameter("variable-key-path", "/customer/id")));
+
+        given().port(55080)
+               .contentType("application/json")
+               .body(Files.readAllBytes(Paths.get(getClass().getResource("/variables.json").toURI())))
+               .when()
+               .post("/__admin/variables");
+
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"customer\" : {\"id\" : \"dos\"}}")
+               .when()
+               .post("/test-var")
+               .then()
+               .body("name", equalTo("manuel"))
+               .body("profession", equalTo("matado"));
+
+        given().port(55080)
+               .contentType("application/xml")
+               .body("<customer><id>uno</id></customer>")
+               .when()
+               .post("/test-var")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_INTERNAL_ERROR);
+
+        wiremock.stubFor(post(urlEqualTo("/test-var-xml")).willReturn(aResponse()
+                .withStatus(200)
+                .withHeader("content-type", "application/json")
+                .withBody(new String(Files.readAllBytes(Paths.get(getClass().getResource("/stub/json-response-stub-with-variables.json").toURI())),StandardCharsets.UTF_8))
+                .withTransformers("freemarker-transformer")
+                .withTransformerParameter("variable-set", "test")
+                .withTransformerParameter("variable-key-source", "object")
+                .withTransformerParameter("variable-key-path", "/customer/id/value")
+                .withTransformerParameter("variable-key-matches", "customer-(.*)")));
+
+        given().port(55080)
+               .contentType("application/xml")
+               .body("<customer><id>customer-uno</id></customer>")
+               .when()
+               .post("/test-var-xml")
+               .then()
+               .body("name", equalTo("miguel"))
+               .body("profession", equalTo("matador"));
+    }
+
+    /**
+     * Test choosing the variable sub-set with a key taken from a specific request header
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testVariablesWithHeaderKey() throws Exception {
+        wiremock.stubFor(get(urlEqualTo("/test-var-header")).willReturn(aResponse()
+                .withStatus(200)
+                .withHeader("content-type", "application/json")
+                .withBody(new String(Files.readAllBytes(Paths.get(getClass().getResource("/stub/json-response-stub-with-variables.json").toURI())),StandardCharsets.UTF_8))
+                .withTransformers("freemarker-transformer")
+                .withTransformerParameter("variable-set", "test")
+                .withTransformerParameter("variable-key-source", "headers")
+                .withTransformerParameter("variable-key-header", "X-Tenant")));
+
+        wiremock.stubFor(get(urlEqualTo("/test-var-header-match")).willReturn(aResponse()
+                .withStatus(200)
+                .withHeader("content-type", "application/json")
+                .withBody(new String(Files.readAllBytes(Paths.get(getClass().getResource("/stub/json-response-stub-with-variables.json").toURI())),StandardCharsets.UTF_8))
+                .withTransformers("freemarker-transformer")
+                .withTransformerParameter("variable-set", "test")
+                .withTransformerParameter("variable-key-source", "headers")
+                .withTransformerParameter("variable-key-header", "Authorization")
+                .withTransformerParameter("variable-key-matches", "Bearer (.*)")));
+
+        given().port(55080)
+               .contentType("application/json")
+               .body(Files.readAllBytes(Paths.get(getClass().getResource("/variables.json").toURI())))
+               .when()
+               .post("/__admin/variables");
+
+        given().port(55080)
+               .header("X-Tenant", "uno")
+               .when()
+               .get("/test-var-header")
+               .then()
+               .body("name", equalTo("miguel"))
+               .body("profession", equalTo("matador"));
+
+        given().port(55080)
+               .header("Authorization", "Bearer dos")
+               .when()
+               .get("/test-var-header-match")
+               .then()
+               .body("name", equalTo("manuel"))
+               .body("profession", equalTo("matado"));
+    }
+
+    /**
+     * Test finding variable records through a secondary index
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testVariableIndex() throws Exception {
+        wiremock.stubFor(get(urlPathEqualTo("/test-var-index")).willReturn(aResponse()
+                .withStatus(200)
+                .withHeader("content-type", "application/json")
+                .withBody("<#assign customer = varIndex(\"customers\", \"email\", request.parameters.email)!{}>"
+                        + "{ \"name\" : \"${customer.name!'unknown'}\", \"profession\" : \"${customer.profession!'unknown'}\"}")
+                .withTransformers("freemarker-transformer")));
+
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"indexes\" : [\"email\", \"/account/number\"]}")
+               .when()
+               .post("/__admin/variable-settings/customers")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"uno\" : {\"name\" : \"miguel\", \"profession\" : \"matador\", \"email\" : \"miguel@toros.es\", \"account\" : {\"number\" : 1}},"
+                   + " \"dos\" : {\"name\" : \"manuel\", \"profession\" : \"toro\", \"email\" : \"manuel@toros.es\", \"account\" : {\"number\" : 2}}}")
+               .when()
+               .post("/__admin/variables/customers")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        given().port(55080)
+               .urlEncodingEnabled(false)
+               .when()
+               .get("/test-var-index?email=manuel@toros.es")
+               .then()
+               .body("name", equalTo("manuel"))
+               .body("profession", equalTo("toro"));
+
+        given().port(55080)
+               .urlEncodingEnabled(false)
+               .when()
+               .get("/test-var-index?email=nobody@toros.es")
+               .then()
+               .body("name", equalTo("unknown"));
+
+        given().port(55080)
+               .when()
+               .get("/__admin/variable-settings/customers")
+               .then()
+               .body("indexes[1]", equalTo("/account/number"));
+
+        // the settings endpoint doesn't shadow a variable named like it
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"name\" : \"juan\"}")
+               .when()
+               .put("/__admin/variable-keys/customers/settings")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        given().port(55080)
+               .when()
+               .get("/__admin/variable-keys/customers/settings")
+               .then()
+               .body("name", equalTo("juan"));
+
+        wiremock.stubFor(get(urlPathEqualTo("/test-var-index-nested")).willReturn(aResponse()
+                .withStatus(200)
+                .withHeader("content-type", "application/json")
+                .withBody("{ \"name\" : \"${varIndex(\"customers\", \"/account/number\", 1).name}\"}")
+                .withTransformers("freemarker-transformer")));
+
+        given().port(55080)
+               .when()
+               .get("/test-var-index-nested")
+               .then()
+               .body("name", equalTo("miguel"));
+    }
+
+    @Test
+    public void testVariableSetBulkImport() throws Exception {
+        given().port(55080)
+               .contentType("text/plain")
+               .body("{\"uno\" : {\"name\" : \"miguel\"}}\n{\"dos\" : {\"name\" : \"manuel\"}, \"tres\" : \"toro\"}\n")
+               .when()
+               .post("/__admin/variables/bulk-test/bulk")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        given().port(55080)
+               .when()
+               .get("/__admin/variables/bulk-test")
+               .then()
+               .body("uno.name", equalTo("miguel"))
+               .body("dos.name", equalTo("manuel"))
+               .body("tres", equalTo("toro"));
+
+        given().port(55080)
+               .contentType("text/plain")
+               .body("{\"uno\" : {\"name\" : \"miguel\"}}\n[\"not an object\"]\n")
+               .when()
+               .post("/__admin/variables/bulk-test/bulk")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_BAD_REQUEST);
+
+        given().port(55080)
+               .when()
+               .get("/__admin/variables/bulk-test")
+               .then()
+               .body("dos.name", equalTo("manuel"));
+    }
+
+    @Test
+    public void testVariableSetPerKeyUpdates() throws Exception {
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"uno\" : {\"name\" : \"miguel\", \"profession\" : \"matador\"}, \"dos\" : {\"name\" : \"manuel\"}}")
+               .when()
+               .post("/__admin/variables/per-key")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"name\" : \"juan\"}")
+               .when()
+               .put("/__admin/variable-keys/per-key/tres")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        given().port(55080)
+               .when()
+               .delete("/__admin/variable-keys/per-key/dos")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"uno\" : {\"profession\" : \"toro\"}}")
+               .when()
+               .patch("/__admin/variables/per-key")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        given().port(55080)
+               .when()
+               .get("/__admin/variables/per-key")
+               .then()
+               .body("uno.name", equalTo("miguel"))
+               .body("uno.profession", equalTo("toro"))
+               .body("dos", nullValue())
+               .body("tres.name", equalTo("juan"));
+    }
+
+    @Test
+    public void testVariableSetNamedRemovePerKeyUpdates() throws Exception {
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"foo\" : {\"name\" : \"miguel\"}, \"bar\" : {\"name\" : \"manuel\"}}")
+               .when()
+               .post("/__admin/variables/remove")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"uno\" : \"juan\"}")
+               .when()
+               .post("/__admin/variables/foo")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        // removing a key of the set doesn't remove the set named like the key
+        given().port(55080)
+               .when()
+               .delete("/__admin/variable-keys/remove/foo")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        given().port(55080)
+               .when()
+               .get("/__admin/variable-keys/remove/foo")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_NOT_FOUND);
+
+        given().port(55080)
+               .when()
+               .get("/__admin/variable-keys/remove/bar")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK)
+               .body("name", equalTo("manuel"));
+
+        given().port(55080)
+               .when()
+               .get("/__admin/variables/foo")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK)
+               .body("uno", equalTo("juan"));
+    }
+
+    @Test
+    public void testVariableSetPagination() throws Exception {
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"uno\" : {\"name\" : \"miguel\"}, \"dos\" : {\"name\" : \"manuel\"}, \"tres\" : {\"name\" : \"juan\"}}")
+               .when()
+               .post("/__admin/variables/paged")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        given().port(55080)
+               .when()
+               .get("/__admin/variables/paged?offset=1&limit=1")
+               .then()
+               .header("X-Total-Count", "3")
+               .body("size()", equalTo(1))
+               .body("dos.name", equalTo("manuel"));
+
+        given().port(55080)
+               .when()
+               .get("/__admin/variables/paged?after=uno&keys=true")
+               .then()
+               .body("", contains("dos", "tres"));
+
+        given().port(55080)
+               .when()
+               .get("/__admin/variables/paged?limit=many")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_BAD_REQUEST);
+
+        given().port(55080)
+               .when()
+               .get("/__admin/variable-keys/paged/tres")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK)
+               .body("name", equalTo("juan"));
+
+        given().port(55080)
+               .when()
+               .get("/__admin/variable-keys/paged/cuatro")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_NOT_FOUND);
+    }
+
+    @Test
+    public void testVariableOperationsBatch() throws Exception {
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"uno\" : {\"name\" : \"miguel\"}}")
+               .when()
+               .post("/__admin/variables/batch-old")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        given().port(55080)
+               .contentType("application/json")
+               .body("[{\"op\" : \"set\", \"set\" : \"batch-new\", \"variables\" : {\"uno\" : {\"name\" : \"miguel\"}}},"
+                       + "{\"op\" : \"patch\", \"set\" : \"batch-new\", \"patch\" : {\"dos\" : {\"name\" : \"manuel\"}}},"
+                       + "{\"op\" : \"remove\", \"set\" : \"batch-old\"}]")
+               .when()
+               .post("/__admin/variable-batch")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        given().port(55080)
+               .when()
+               .get("/__admin/variables/batch-new")
+               .then()
+               .body("uno.name", equalTo("miguel"))
+               .body("dos.name", equalTo("manuel"));
+
+        given().port(55080)
+               .when()
+               .get("/__admin/variables/batch-old")
+               .then()
+               .header("X-Total-Count", "0");
+
+        given().port(55080)
+               .contentType("application/json")
+               .body("[{\"op\" : \"remove\", \"set\" : \"batch-new\"}, {\"op\" : \"replace\", \"set\" : \"batch-new\"}]")
+               .when()
+               .post("/__admin/variable-batch")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_BAD_REQUEST);
+
+        given().port(55080)
+               .when()
+               .get("/__admin/variables/batch-new")
+               .then()
+               .body("uno.name", equalTo("miguel"));
+
+        // a set can be named like the batch endpoint
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"uno\" : {\"name\" : \"juan\"}}")
+               .when()
+               .post("/__admin/variables/batch")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        given().port(55080)
+               .when()
+               .get("/__admin/variables/batch")
+               .then()
+               .body("uno.name", equalTo("juan"));
+    }
+
+    @Test
+    public void testConditionalVariableSetRead() throws Exception {
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"uno\" : {\"name\" : \"miguel\"}}")
+               .when()
+               .post("/__admin/variables/versioned")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        String etag = given().port(55080)
+               .when()
+               .get("/__admin/variables/versioned")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK)
+               .header("ETag", notNullValue())
+               .extract()
+               .header("ETag");
+
+        given().port(55080)
+               .header("If-None-Match", etag)
+               .when()
+               .get("/__admin/variables/versioned")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_NOT_MODIFIED);
+
+        given().port(55080)
+               .header("If-None-Match", etag)
+               .when()
+               .get("/__admin/variables/versioned?wait=1")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_NOT_MODIFIED);
+
+        // the long poll returns as soon as the set is updated
+        new Thread(() -> {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            FreemarkerVariableRepository.putVariable("versioned", "dos", "manuel");
+        }).start();
+        given().port(55080)
+               .header("If-None-Match", etag)
+               .when()
+               .get("/__admin/variables/versioned?wait=30")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK)
+               .header("ETag", not(equalTo(etag)))
+               .body("dos", equalTo("manuel"));
+
+        String repositoryEtag = given().port(55080)
+               .when()
+               .get("/__admin/variables")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK)
+               .extract()
+               .header("ETag");
+
+        given().port(55080)
+               .header("If-None-Match", repositoryEtag)
+               .when()
+               .get("/__admin/variables")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_NOT_MODIFIED);
+    }
+
+    @Test
+    public void testTemplateStateUpdates() throws Exception {
+        wiremock.stubFor(post(urlPathEqualTo("/test-var-state")).willReturn(aResponse()
+                .withStatus(200)
+                .withHeader("content-type", "application/json")
+                .withBody("{ \"sequence\" : ${varIncrement(\"state\", \"sequence\")?c},"
+                        + " \"paid\" : ${varCompareAndSet(\"state\", \"status\", \"new\", \"paid\")?c},"
+                        + " \"previous\" : \"${varGetAndPut(\"state\", \"last\", request.parameters.id)!'none'}\"}")
+                .withTransformers("freemarker-transformer")));
+
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"status\" : \"new\"}")
+               .when()
+               .post("/__admin/variables/state")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        given().port(55080)
+               .when()
+               .post("/test-var-state?id=uno")
+               .then()
+               .body("sequence", equalTo(1))
+               .body("paid", equalTo(true))
+               .body("previous", equalTo("none"));
+
+        given().port(55080)
+               .when()
+               .post("/test-var-state?id=dos")
+               .then()
+               .body("sequence", equalTo(2))
+               .body("paid", equalTo(false))
+               .body("previous", equalTo("uno"));
+
+        given().port(55080)
+               .when()
+               .get("/__admin/variables/state")
+               .then()
+               .body("sequence", equalTo(2))
+               .body("status", equalTo("paid"))
+               .body("last", equalTo("dos"));
+    }
+
+    @Test
+    public void testVariableSetEviction() throws Exception {
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"maxEntries\" : 1}")
+               .when()
+               .post("/__admin/variable-settings/bounded")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        // negative bounds are rejected, with the expected format of every setting
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"maxEntries\" : -1}")
+               .when()
+               .post("/__admin/variable-settings/negative")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_BAD_REQUEST)
+               .body(containsString("\"maxBytes\": <bytes>"));
+
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"uno\" : {\"name\" : \"miguel\"}, \"dos\" : {\"name\" : \"manuel\"}}")
+               .when()
+               .post("/__admin/variables/bounded")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        given().port(55080)
+               .when()
+               .get("/__admin/variables/bounded")
+               .then()
+               .body("uno", nullValue())
+               .body("dos.name", equalTo("manuel"));
+
+        given().port(55080)
+               .when()
+               .get("/__admin/variable-evictions/bounded")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK)
+               .body("expired", equalTo(0))
+               .body("evicted", equalTo(1));
+
+        given().port(55080)
+               .when()
+               .get("/__admin/variable-evictions/unbounded")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_NOT_FOUND);
+
+        // the path of a variable named like the endpoint reads the variable
+        given().port(55080)
+               .when()
+               .get("/__admin/variable-keys/bounded/evictions")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_NOT_FOUND);
+    }
+
+    @Test
+    public void testLayeredVariableSets() throws Exception {
+        wiremock.stubFor(get(urlPathEqualTo("/test-var-layers")).willReturn(aResponse()
+                .withStatus(200)
+                .withHeader("content-type", "application/json")
+                .withBody("{ \"name\" : \"${var.name}\", \"profession\" : \"${var.profession}\", \"keys\" : ${var?keys?size} }")
+                .withTransformers("freemarker-transformer")
+                .withTransformerParameter("variable-set", Arrays.asList("layer-overrides", "layer-missing", "layer-defaults"))
+                .withTransformerParameter("variable-key-source", "object")
+                .withTransformerParameter("variable-key-path", "/request/parameters/id")));
+
+        wiremock.stubFor(get(urlPathEqualTo("/test-var-layers-all")).willReturn(aResponse()
+                .withStatus(200)
+                .withHeader("content-type", "application/json")
+                .withBody("{ \"keys\" : \"<#list var?keys as key>${key}<#sep>,</#list>\", \"level\" : \"${var.level}\" }")
+                .withTransformers("freemarker-transformer")
+                .withTransformerParameter("variable-set", "layer-overrides, layer-defaults")));
+
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"uno\" : {\"name\" : \"miguel\", \"profession\" : \"matador\"}, \"dos\" : {\"name\" : \"manuel\", \"profession\" : \"toro\"}, \"level\" : \"default\"}")
+               .when()
+               .post("/__admin/variables/layer-defaults")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"uno\" : {\"profession\" : \"torero\"}, \"tres\" : {\"name\" : \"juan\", \"profession\" : \"picador\"}, \"level\" : \"override\"}")
+               .when()
+               .post("/__admin/variables/layer-overrides")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        given().port(55080)
+               .when()
+               .get("/test-var-layers?id=uno")
+               .then()
+               .body("name", equalTo("miguel"))
+               .body("profession", equalTo("torero"))
+               .body("keys", equalTo(2));
+
+        given().port(55080)
+               .when()
+               .get("/test-var-layers?id=dos")
+               .then()
+               .body("name", equalTo("manuel"))
+               .body("profession", equalTo("toro"));
+
+        given().port(55080)
+               .when()
+               .get("/test-var-layers-all")
+               .then()
+               .body("keys", equalTo("uno,tres,level,dos"))
+               .body("level", equalTo("override"));
+    }
+
+    @Test
+    public void testRenderCache() throws Exception {
+        wiremock.stubFor(get(urlPathEqualTo("/test-render-cache")).willReturn(aResponse()
+                .withStatus(200)
+                .withBody("${request.parameters.id} ${request.parameters.other} ${var.level}")
+                .withTransformers("freemarker-transformer")
+                .withTransformerParameter("variable-set", "render-cache")
+                .withTransformerParameter("render-cache", true)
+                .withTransformerParameter("render-cache-key", "/request/parameters/id")));
+
+        wiremock.stubFor(get(urlPathEqualTo("/test-render-cache-now")).willReturn(aResponse()
+                .withStatus(200)
+                .withBody("${.now?long?c}")
+                .withTransformers("freemarker-transformer")
+                .withTransformerParameter("render-cache", true)));
+
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"level\" : \"uno\"}")
+               .when()
+               .post("/__admin/variables/render-cache")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        given().port(55080).when().get("/test-render-cache?id=1&other=a").then().body(equalTo("1 a uno"));
+        // cached by the declared input only
+        given().port(55080).when().get("/test-render-cache?id=1&other=b").then().body(equalTo("1 a uno"));
+        given().port(55080).when().get("/test-render-cache?id=2&other=b").then().body(equalTo("2 b uno"));
+
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"level\" : \"dos\"}")
+               .when()
+               .post("/__admin/variables/render-cache")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        // a new version of the variable set is rendered again
+        given().port(55080).when().get("/test-render-cache?id=1&other=b").then().body(equalTo("1 b dos"));
+
+        // templates reading the current time are never cached
+        String now = given().port(55080).when().get("/test-render-cache-now").asString();
+        Thread.sleep(5);
+        given().port(55080).when().get("/test-render-cache-now").then().body(not(equalTo(now)));
+
+        wiremock.stubFor(get(urlPathMatching("/test-render-cache-keyed/.*")).willReturn(aResponse()
+                .withStatus(200)
+                .withBody("${request.parameters.id} ${var.name}")
+                .withTransformers("freemarker-transformer")
+                .withTransformerParameter("variable-set", "render-cache-keyed")
+                .withTransformerParameter("variable-key-source", "url")
+                .withTransformerParameter("variable-key-matches", "/test-render-cache-keyed/([^?]*).*")
+                .withTransformerParameter("render-cache", true)
+                .withTransformerParameter("render-cache-key", "/request/parameters/id")));
+
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"uno\" : {\"name\" : \"miguel\"}, \"dos\" : {\"name\" : \"manuel\"}}")
+               .when()
+               .post("/__admin/variables/render-cache-keyed")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        // the chosen variables are part of the key, even when the declared inputs leave them out
+        given().port(55080).when().get("/test-render-cache-keyed/uno?id=1").then().body(equalTo("1 miguel"));
+        given().port(55080).when().get("/test-render-cache-keyed/dos?id=1").then().body(equalTo("1 manuel"));
+    }
+
+    @Test
+    public void testCachedFragment() throws Exception {
+        wiremock.stubFor(get(urlPathEqualTo("/test-cached-fragment")).willReturn(aResponse()
+                .withStatus(200)
+                .withBody("<@cached key=request.parameters.id sets=\"fragment\">${request.parameters.id}-${request.parameters.other}-${var.level}</@cached>"
+                        + "|${request.parameters.other}")
+                .withTransformers("freemarker-transformer")
+                .withTransformerParameter("variable-set", "fragment")));
+
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"level\" : \"uno\"}")
+               .when()
+               .post("/__admin/variables/fragment")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        given().port(55080).when().get("/test-cached-fragment?id=1&other=a").then().body(equalTo("1-a-uno|a"));
+        // only the fragment is cached
+        given().port(55080).when().get("/test-cached-fragment?id=1&other=b").then().body(equalTo("1-a-uno|b"));
+        given().port(55080).when().get("/test-cached-fragment?id=2&other=b").then().body(equalTo("2-b-uno|b"));
+
+        given().port(55080)
+               .contentType("application/json")
+               .body("{\"level\" : \"dos\"}")
+               .when()
+               .post("/__admin/variables/fragment")
+               .then()
+               .statusCode(HttpURLConnection.HTTP_OK);
+
+        // a new version of the variable set is rendered again
+        given().port(55080).when().get("/test-cached-fragment?id=1&other=c").then().body(equalTo("1-c-dos|c"));
+    }
+
+    @Test
+    public void testRenderBuffersAreReused() throws Exception {
+        wiremock.stubFor(get(urlPathEqualTo("/test-buffer")).willReturn(aResponse()
+                .withStatus(200)
+                .withBody("<#list 1..request.parameters.size?number as i>x</#list>")
+                .withTransformers("freemarker-transformer")));
+
+        wiremock.stubFor(get(urlPathEqualTo("/test-buffer-short")).willReturn(aResponse()
+                .withStatus(200)
+                .withBody("${request.parameters.name}")
+                .withTransformers("freemarker-transformer")));
+
+        // the size estimate follows the largest output, the buffers are emptied before being reused, and outputs too
+        // large to be pooled get a buffer of their own
+        for (int size : new int[] {10, 100000, 10, 300000, 10, 5000}) {
+            given().port(55080).when().get("/test-buffer?size=" + size).then().body(equalTo(String.join("", Collections.nCopies(size, "x"))));
+            given().port(55080).when().get("/test-buffer-short?name=miguel").then().body(equalTo("miguel"));
+        }
+    }
+
+    /**
+     * Test templates kept in files are read once, and read again when the file changes
+     * 
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testTemplateFileIsReloaded() throws IOException, InterruptedException {
+        Path template = folder.newFolder("__files", "templates").toPath().resolve("greeting.ftl");
+        Files.write(template, "Hola ${request.parameters.name}".getBytes(StandardCharsets.UTF_8));
+        WireMockServer server = startTemplateFileServer();
+        try {
+            given().port(55081).when().get("/test-file?name=miguel").then().body(equalTo("Hola miguel"));
+
+            Files.write(template, "Adios ${request.parameters.name}".getBytes(StandardCharsets.UTF_8));
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!"Adios miguel".equals(given().port(55081).when().get("/test-file?name=miguel").asString())
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            given().port(55081).when().get("/test-file?name=manuel").then().body(equalTo("Adios manuel"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Test the transformers of several servers share the watcher of their stub files
+     * 
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testTemplateFileWatcherIsShared() throws IOException, InterruptedException {
+        Path template = folder.newFolder("__files", "templates").toPath().resolve("greeting.ftl");
+        Files.write(template, "Hola ${request.parameters.name}".getBytes(StandardCharsets.UTF_8));
+        WireMockServer server = startTemplateFileServer();
+        WireMockServer other = startTemplateFileServer(55082);
+        try {
+            given().port(55081).when().get("/test-file?name=miguel").then().body(equalTo("Hola miguel"));
+            given().port(55082).when().get("/test-file?name=miguel").then().body(equalTo("Hola miguel"));
+
+            String watcherName = "freemarker-file-watcher " + template.getParent().getParent().toAbsolutePath().normalize();
+            assertEquals(1, Thread.getAllStackTraces().keySet().stream().filter(thread -> thread.getName().equals(watcherName)).count());
+
+            Files.write(template, "Adios ${request.parameters.name}".getBytes(StandardCharsets.UTF_8));
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!"Adios miguel".equals(given().port(55082).when().get("/test-file?name=miguel").asString())
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            given().port(55081).when().get("/test-file?name=manuel").then().body(equalTo("Adios manuel"));
+            given().port(55082).when().get("/test-file?name=manuel").then().body(equalTo("Adios manuel"));
+        } finally {
+            other.stop();
+            server.stop();
+        }
+    }
+
+    /**
+     * Test template files are checked for changes on every render when they're not watched
+     * 
+     * @throws IOException
+     */
+    @Test
+    public void testUnwatchedTemplateFileIsReloaded() throws IOException {
+        Path template = folder.newFolder("__files", "templates").toPath().resolve("greeting.ftl");
+        Files.write(template, "Hola ${request.parameters.name}".getBytes(StandardCharsets.UTF_8));
+        System.setProperty(FreemarkerResponseTransformer.WATCH_TEMPLATES_PROPERTY, "false");
+        WireMockServer server;
+        try {
+            server = startTemplateFileServer();
+        } finally {
+            System.clearProperty(FreemarkerResponseTransformer.WATCH_TEMPLATES_PROPERTY);
+        }
+        try {
+            given().port(55081).when().get("/test-file?name=miguel").then().body(equalTo("Hola miguel"));
+            given().port(55081).when().get("/test-file?name=manuel").then().body(equalTo("Hola manuel"));
+
+            // the size changes, so the change is seen even if the modification time is too coarse
+            Files.write(template, "Hasta luego ${request.parameters.name}".getBytes(StandardCharsets.UTF_8));
+            given().port(55081).when().get("/test-file?name=miguel").then().body(equalTo("Hasta luego miguel"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Test stub templates can import and include the template libraries kept in the stub files
+     * 
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testTemplateLibraries() throws IOException, InterruptedException {
+        Path libraries = folder.newFolder("__files", "libs").toPath();
+        Files.write(libraries.resolve("macros.ftl"), "<#macro greet name>Hola ${name}</#macro>".getBytes(StandardCharsets.UTF_8));
+        Files.write(libraries.resolve("footer.ftl"), "!".getBytes(StandardCharsets.UTF_8));
+        WireMockServer server = startTemplateFileServer();
+        try {
+            server.stubFor(get(urlPathEqualTo("/test-import")).willReturn(aResponse()
+                    .withStatus(200)
+                    .withBody("<#import \"/libs/macros.ftl\" as m><@m.greet name=request.parameters.name/><#include \"libs/footer.ftl\">")
+                    .withTransformers("freemarker-transformer")));
+            server.stubFor(get(urlPathEqualTo("/test-include")).willReturn(aResponse()
+                    .withStatus(200)
+                    .withBody("<#include \"/libs/macros.ftl\"><@greet name=\"manuel\"/>")
+                    .withTransformers("freemarker-transformer")
+                    .withTransformerParameter("render-cache", true)));
+
+            given().port(55081).when().get("/test-import?name=miguel").then().body(equalTo("Hola miguel!"));
+            given().port(55081).when().get("/test-include").then().body(equalTo("Hola manuel"));
+
+            Files.write(libraries.resolve("macros.ftl"), "<#macro greet name>Adios ${name}</#macro>".getBytes(StandardCharsets.UTF_8));
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!"Adios miguel!".equals(given().port(55081).when().get("/test-import?name=miguel").asString())
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            given().port(55081).when().get("/test-import?name=miguel").then().body(equalTo("Adios miguel!"));
+            given().port(55081).when().get("/test-include").then().body(equalTo("Adios manuel"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Start a server with the stub files in the temporary folder, and a stub for the <code>templates/greeting.ftl</code>
+     * template file
+     * 
+     * @return the started server
+     */
+    private WireMockServer startTemplateFileServer() {
+        return startTemplateFileServer(55081);
+    }
+
+    /**
+     * Start a server with the stub files in the temporary folder, and a stub for the <code>templates/greeting.ftl</code>
+     * template file
+     * 
+     * @param port the server port
+     * @return the started server
+     */
+    private WireMockServer startTemplateFileServer(int port) {
+        WireMockServer server = new WireMockServer(WireMockConfiguration.wireMockConfig()
+                                                                        .port(port)
+                                                                        .usingFilesUnderDirectory(folder.getRoot().getPath())
+                                                                        .extensions(new FreemarkerResponseTransformer()));
+        server.start();
+        server.stubFor(get(urlPathEqualTo("/test-file")).willReturn(aResponse()
+                .withStatus(200)
+                .withBodyFile("templates/greeting.ftl")
+                .withTransformers("freemarker-transformer")));
+        return server;
+    }
+
 }
@@ -0,0 +1,671 @@
+/*
+ * FreemarkerVariableRepositoryTest.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateScalarModel;
+
+/**
+ * Unit test for {@link FreemarkerVariableRepository}
+ * 
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public class FreemarkerVariableRepositoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        FreemarkerVariableRepository.reset();
+    }
+
+    @After
+    public void tearDown() {
+        FreemarkerVariableRepository.disableJournal();
+        FreemarkerVariableRepository.unwatchVariableSets();
+        FreemarkerVariableRepository.reset();
+    }
+
+    @Test
+    public void testJournalIsReplayed() throws IOException {
+        Path journalFile = folder.getRoot().toPath().resolve("variables.journal");
+        FreemarkerVariableRepository.enableJournal(journalFile, 1024 * 1024);
+
+        Map<String, Object> record = new HashMap<>();
+        record.put("name", "miguel");
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("uno", record);
+        FreemarkerVariableRepository.setVariableSet("test", variables);
+        FreemarkerVariableRepository.setSettings("test", new VariableSetSettings(Arrays.asList("name")));
+        FreemarkerVariableRepository.setVariableSet("removed", variables);
+        FreemarkerVariableRepository.removeVariableSet("removed");
+        FreemarkerVariableRepository.disableJournal();
+
+        // an interrupted write leaves an incomplete record at the end of the journal
+        long size = Files.size(journalFile);
+        Files.write(journalFile, new byte[] {0, 0, 1, 0, 1, 0}, StandardOpenOption.APPEND);
+        FreemarkerVariableRepository.reset();
+
+        FreemarkerVariableRepository.enableJournal(journalFile, 1024 * 1024);
+        assertEquals(size, Files.size(journalFile));
+        assertEquals(variables, FreemarkerVariableRepository.getVariableSet("test"));
+        assertNull(FreemarkerVariableRepository.getVariableSet("removed"));
+        assertEquals("uno", FreemarkerVariableRepository.getSnapshot("test").getIndex("name").get("miguel"));
+    }
+
+    @Test
+    public void testJournalIsCompacted() throws IOException {
+        Path journalFile = folder.getRoot().toPath().resolve("variables.journal");
+        FreemarkerVariableRepository.enableJournal(journalFile, 1024);
+
+        Map<String, Object> variables = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            variables.put("key", "value " + i);
+            FreemarkerVariableRepository.setVariableSet("test", variables);
+        }
+        assertTrue(Files.size(journalFile) < 2048);
+        FreemarkerVariableRepository.disableJournal();
+        FreemarkerVariableRepository.unwatchVariableSets();
+        FreemarkerVariableRepository.reset();
+
+        FreemarkerVariableRepository.enableJournal(journalFile, 1024);
+        assertEquals("value 99", FreemarkerVariableRepository.getVariableSet("test").get("key"));
+    }
+
+    @Test
+    public void testPublishedSetIsAnImmutableCopy() {
+        Map<String, Object> record = new HashMap<>();
+        record.put("name", "miguel");
+        List<Object> tags = new ArrayList<>();
+        tags.add("matador");
+        record.put("tags", tags);
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("uno", record);
+
+        assertNull(FreemarkerVariableRepository.setVariableSet("test", variables));
+        record.put("name", "manuel");
+        tags.add("toro");
+
+        Map<String, Object> published = FreemarkerVariableRepository.getVariableSet("test");
+        assertEquals("miguel", ((Map<?, ?>) published.get("uno")).get("name"));
+        assertEquals(1, ((List<?>) ((Map<?, ?>) published.get("uno")).get("tags")).size());
+
+        try {
+            published.put("dos", record);
+            fail("published variable set can be modified");
+        } catch (UnsupportedOperationException uoe) {
+            
+        }
+        try {
+            ((List<?>) ((Map<?, ?>) published.get("uno")).get("tags")).clear();
+            fail("published variable set can be modified");
+        } catch (UnsupportedOperationException uoe) {
+            
+        }
+    }
+
+    @Test
+    public void testReadersKeepTheirSnapshot() {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("uno", "miguel");
+        FreemarkerVariableRepository.setVariableSet("test", variables);
+
+        Map<String, Map<String, Object>> sets = FreemarkerVariableRepository.getVariableSets();
+        Map<String, Object> published = FreemarkerVariableRepository.getVariableSet("test");
+
+        variables.put("uno", "manuel");
+        assertSame(published, FreemarkerVariableRepository.setVariableSet("test", variables));
+        FreemarkerVariableRepository.setVariableSet("other", variables);
+
+        assertEquals("miguel", published.get("uno"));
+        assertEquals(1, sets.size());
+        assertEquals("miguel", sets.get("test").get("uno"));
+        assertEquals("manuel", FreemarkerVariableRepository.getVariableSet("test").get("uno"));
+        assertEquals(2, FreemarkerVariableRepository.getVariableSets().size());
+
+        assertEquals("manuel", FreemarkerVariableRepository.removeVariableSet("test").get("uno"));
+        assertNull(FreemarkerVariableRepository.getVariableSet("test"));
+    }
+
+    @Test
+    public void testOffHeapStorage() {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("name", "miguel");
+        record.put("tags", Arrays.asList("matador", "toro"));
+        Map<String, Object> variables = new LinkedHashMap<>();
+        variables.put("zwei", "dos");
+        variables.put("uno", record);
+        FreemarkerVariableRepository.setSettings("test", new VariableSetSettings(Arrays.asList("name"), VariableSetSettings.OFF_HEAP_STORAGE));
+        FreemarkerVariableRepository.setVariableSet("test", variables);
+
+        VariableSet snapshot = FreemarkerVariableRepository.getSnapshot("test");
+        assertTrue(snapshot.getVariables() instanceof OffHeapVariables);
+        assertEquals(variables, snapshot.getVariables());
+        assertEquals(Arrays.asList("zwei", "uno"), new ArrayList<>(snapshot.getVariables().keySet()));
+        assertSame(snapshot.getVariables().get("uno"), snapshot.getVariables().get("uno"));
+        assertNull(snapshot.getVariables().get("tres"));
+        assertEquals("uno", snapshot.getIndex("name").get("miguel"));
+        assertEquals("dos", snapshot.getModel().get("zwei").toString());
+
+        FreemarkerVariableRepository.setSettings("test", VariableSetSettings.DEFAULT);
+        assertFalse(FreemarkerVariableRepository.getSnapshot("test").getVariables() instanceof OffHeapVariables);
+        assertEquals(variables, FreemarkerVariableRepository.getVariableSet("test"));
+    }
+
+    @Test
+    public void testColumnarStorage() throws TemplateModelException {
+        Map<String, Object> variables = new LinkedHashMap<>();
+        for (int i = 0; i < 300; i++) {
+            Map<String, Object> record = new LinkedHashMap<>();
+            record.put("name", "customer " + i);
+            record.put("type", i % 2 == 0 ? "gold" : null);
+            record.put("age", i);
+            record.put("balance", i * 1.5);
+            record.put("active", i % 3 == 0);
+            record.put("tags", Arrays.asList("tag " + i));
+            variables.put("c" + i, record);
+        }
+        FreemarkerVariableRepository.setSettings("test", new VariableSetSettings(null, VariableSetSettings.COLUMNAR_STORAGE));
+        FreemarkerVariableRepository.setVariableSet("test", variables);
+
+        VariableSet snapshot = FreemarkerVariableRepository.getSnapshot("test");
+        assertTrue(snapshot.getVariables() instanceof ColumnarVariables);
+        assertEquals(variables, snapshot.getVariables());
+        assertEquals(new ArrayList<>(variables.keySet()), new ArrayList<>(snapshot.getVariables().keySet()));
+        assertEquals(variables.get("c42"), snapshot.getVariables().get("c42"));
+        assertNull(snapshot.getVariables().get("c300"));
+        assertEquals("customer 7", ((TemplateHashModel) snapshot.getModel().get("c7")).get("name").toString());
+
+        // sets which are not tabular are kept as they are
+        variables.put("other", "value");
+        FreemarkerVariableRepository.setVariableSet("test", variables);
+        assertFalse(FreemarkerVariableRepository.getSnapshot("test").getVariables() instanceof ColumnarVariables);
+        assertEquals(variables, FreemarkerVariableRepository.getVariableSet("test"));
+    }
+
+    @Test
+    public void testStoredSetsArePatchedKeyByKey() throws IOException {
+        Map<String, Object> variables = new LinkedHashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            variables.put("c" + i, Collections.singletonMap("name", "customer " + i));
+        }
+        Path file = folder.getRoot().toPath().resolve("mapped.json");
+        Files.write(file, VariableCodec.writer().writeValueAsBytes(variables));
+        FreemarkerVariableRepository.loadVariableSet(file);
+        FreemarkerVariableRepository.setSettings("offheap", new VariableSetSettings(null, VariableSetSettings.OFF_HEAP_STORAGE));
+        FreemarkerVariableRepository.setVariableSet("offheap", variables);
+        FreemarkerVariableRepository.setSettings("columnar", new VariableSetSettings(Arrays.asList("name"), VariableSetSettings.COLUMNAR_STORAGE));
+        FreemarkerVariableRepository.setVariableSet("columnar", variables);
+
+        for (String setName : Arrays.asList("mapped", "offheap", "columnar")) {
+            Map<String, Object> stored = FreemarkerVariableRepository.getVariableSet(setName);
+            Map<String, Object> expected = new LinkedHashMap<>(variables);
+            Random random = new Random(42);
+            for (int i = 0; i < 300; i++) {
+                String key = "c" + random.nextInt(2100);
+                if (random.nextInt(4) == 0) {
+                    assertEquals(expected.remove(key), FreemarkerVariableRepository.removeVariable(setName, key));
+                } else {
+                    Map<String, Object> patch = Collections.singletonMap(key, Collections.singletonMap("name", "patched " + i));
+                    FreemarkerVariableRepository.patchVariableSet(setName, patch);
+                    expected.put(key, Collections.singletonMap("name", "patched " + i));
+                }
+
+                // the changes are kept aside from the stored variables, which are then stored again with them
+                Map<String, Object> patched = FreemarkerVariableRepository.getVariableSet(setName);
+                if (i == 0) {
+                    assertSame(stored, ((PatchedVariables) patched).getStored());
+                }
+                assertEquals(expected.get(key), patched.get(key));
+            }
+
+            VariableSet snapshot = FreemarkerVariableRepository.getSnapshot(setName);
+            assertEquals(expected, snapshot.getVariables());
+            assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(snapshot.getVariables().keySet()));
+            Map<String, Object> storage = snapshot.getVariables() instanceof PatchedVariables
+                    ? ((PatchedVariables) snapshot.getVariables()).getStored() : snapshot.getVariables();
+            assertTrue(setName.equals("columnar") ? storage instanceof ColumnarVariables : storage instanceof OffHeapVariables);
+            assertNotSame(stored, storage);
+            assertEquals(variables.size(), stored.size());
+        }
+        assertFalse(VariableSet.isMapped(FreemarkerVariableRepository.getVariableSet("mapped")));
+        assertEquals("c5", FreemarkerVariableRepository.getSnapshot("columnar").getIndex("name").get("customer 5"));
+        assertNull(FreemarkerVariableRepository.getSnapshot("columnar").getIndex("name").get("patched 0"));
+    }
+
+    @Test
+    public void testPerKeyUpdatesAreJournaled() throws IOException {
+        Path journalFile = folder.getRoot().toPath().resolve("variables.journal");
+        FreemarkerVariableRepository.enableJournal(journalFile, 1024 * 1024);
+
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("name", "miguel");
+        record.put("profession", "matador");
+        Map<String, Object> variables = new LinkedHashMap<>();
+        variables.put("uno", record);
+        variables.put("dos", "manuel");
+        FreemarkerVariableRepository.setVariableSet("test", variables);
+        Map<String, Object> published = FreemarkerVariableRepository.getVariableSet("test");
+
+        assertNull(FreemarkerVariableRepository.putVariable("test", "tres", "juan"));
+        assertEquals("manuel", FreemarkerVariableRepository.removeVariable("test", "dos"));
+        assertNull(FreemarkerVariableRepository.removeVariable("test", "dos"));
+        Map<String, Object> patch = new LinkedHashMap<>();
+        patch.put("uno", Collections.singletonMap("profession", null));
+        patch.put("cuatro", Collections.singletonMap("name", "jose"));
+        Map<String, Object> patched = FreemarkerVariableRepository.patchVariableSet("test", patch);
+
+        assertEquals("{uno={name=miguel}, tres=juan, cuatro={name=jose}}", patched.toString());
+        assertEquals(patched, FreemarkerVariableRepository.getVariableSet("test"));
+        assertEquals(2, published.size());
+
+        FreemarkerVariableRepository.disableJournal();
+        FreemarkerVariableRepository.unwatchVariableSets();
+        FreemarkerVariableRepository.reset();
+        FreemarkerVariableRepository.enableJournal(journalFile, 1024 * 1024);
+        assertEquals(patched, FreemarkerVariableRepository.getVariableSet("test"));
+    }
+
+    @Test
+    public void testPerKeyUpdatesShareTheUnchangedVariables() {
+        FreemarkerVariableRepository.setSettings("test", new VariableSetSettings(Arrays.asList("name")));
+        Map<String, Object> expected = new LinkedHashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            expected.put("k" + i, Collections.singletonMap("name", "n" + i % 100));
+        }
+        FreemarkerVariableRepository.setVariableSet("test", expected);
+        VariableSet published = FreemarkerVariableRepository.getSnapshot("test");
+
+        // "Aa" and "BB" have the same hash code
+        Random random = new Random(42);
+        List<String> keys = new ArrayList<>(Arrays.asList("Aa", "BB"));
+        for (int i = 0; i < 6000; i++) {
+            keys.add("k" + i);
+        }
+        for (int i = 0; i < 20000; i++) {
+            String key = keys.get(random.nextInt(keys.size()));
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), FreemarkerVariableRepository.removeVariable("test", key));
+            } else {
+                Object value = Collections.singletonMap("name", "n" + random.nextInt(120));
+                assertEquals(expected.put(key, value), FreemarkerVariableRepository.putVariable("test", key, value));
+            }
+        }
+
+        VariableSet snapshot = FreemarkerVariableRepository.getSnapshot("test");
+        assertEquals(expected, snapshot.getVariables());
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(snapshot.getVariables().keySet()));
+        for (int i = 0; i < 120; i++) {
+            String key = snapshot.getIndex("name").get("n" + i);
+            assertEquals(expected.values().contains(Collections.singletonMap("name", "n" + i)),
+                    key != null && expected.get(key).equals(Collections.singletonMap("name", "n" + i)));
+        }
+        assertEquals(5000, published.getVariables().size());
+        assertEquals("k0", published.getIndex("name").get("n0"));
+
+        // the untouched variables are shared with the previous version
+        Map<String, Object> patched = FreemarkerVariableRepository.patchVariableSet("test", Collections.singletonMap("added", "value"));
+        snapshot.getVariables().forEach((key, value) -> assertSame(value, patched.get(key)));
+    }
+
+    @Test
+    public void testLargeSetModelKeepsTheWrappedRecords() throws TemplateModelException {
+        Map<String, Object> variables = new LinkedHashMap<>();
+        for (int i = 0; i < 10000; i++) {
+            variables.put("k" + i, Collections.singletonMap("name", "n" + i));
+        }
+        FreemarkerVariableRepository.setVariableSet("test", variables);
+
+        // the record is only wrapped once, and kept by the versions which don't change it
+        TemplateModel record = FreemarkerVariableRepository.getSnapshot("test").getModel().get("k5");
+        assertSame(record, FreemarkerVariableRepository.getSnapshot("test").getModel().get("k5"));
+        FreemarkerVariableRepository.putVariable("test", "k6", Collections.singletonMap("name", "other"));
+        assertSame(record, FreemarkerVariableRepository.getSnapshot("test").getModel().get("k5"));
+
+        FreemarkerVariableRepository.putVariable("test", "k5", Collections.singletonMap("name", "other"));
+        TemplateModel updated = FreemarkerVariableRepository.getSnapshot("test").getModel().get("k5");
+        assertNotSame(record, updated);
+        assertEquals("other", ((TemplateScalarModel) ((TemplateHashModel) updated).get("name")).getAsString());
+    }
+
+    @Test
+    public void testBatchIsAppliedAtOnce() throws IOException {
+        Path journalFile = folder.getRoot().toPath().resolve("variables.journal");
+        FreemarkerVariableRepository.enableJournal(journalFile, 1024 * 1024);
+
+        FreemarkerVariableRepository.setVariableSet("old", Collections.singletonMap("uno", "miguel"));
+        FreemarkerVariableRepository.setVariableSet("kept", Collections.singletonMap("uno", "miguel"));
+        Map<String, VariableSet> before = FreemarkerVariableRepository.getSnapshots();
+
+        Map<String, Object> patch = new LinkedHashMap<>();
+        patch.put("uno", null);
+        patch.put("dos", "manuel");
+        FreemarkerVariableRepository.apply(Arrays.asList(
+                VariableOperation.set("new", Collections.singletonMap("uno", "juan")),
+                VariableOperation.patch("new", Collections.singletonMap("dos", "jose")),
+                VariableOperation.remove("old"),
+                VariableOperation.set("temporary", Collections.singletonMap("uno", "juan")),
+                VariableOperation.remove("temporary"),
+                VariableOperation.patch("kept", patch)));
+
+        Map<String, VariableSet> after = FreemarkerVariableRepository.getSnapshots();
+        assertEquals("[old, kept]", before.keySet().toString());
+        assertEquals("[kept, new]", after.keySet().toString());
+        assertEquals(after.get("new").getVersion(), after.get("kept").getVersion());
+        assertEquals("{uno=juan, dos=jose}", after.get("new").getVariables().toString());
+        assertEquals("{dos=manuel}", after.get("kept").getVariables().toString());
+
+        FreemarkerVariableRepository.disableJournal();
+        FreemarkerVariableRepository.unwatchVariableSets();
+        FreemarkerVariableRepository.reset();
+        FreemarkerVariableRepository.enableJournal(journalFile, 1024 * 1024);
+        assertEquals("[kept, new]", FreemarkerVariableRepository.getSnapshots().keySet().toString());
+        assertEquals("{uno=juan, dos=jose}", FreemarkerVariableRepository.getVariableSet("new").toString());
+        assertEquals("{dos=manuel}", FreemarkerVariableRepository.getVariableSet("kept").toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidOperationIsRejected() {
+        new VariableOperation("replace", "test", null, null);
+    }
+
+    @Test
+    public void testAtomicUpdates() throws Exception {
+        Path journalFile = folder.getRoot().toPath().resolve("variables.journal");
+        FreemarkerVariableRepository.enableJournal(journalFile, 1024 * 1024);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 250; j++) {
+                    FreemarkerVariableRepository.incrementVariable("counters", "sequence", 1);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1000, FreemarkerVariableRepository.incrementVariable("counters", "sequence", 0));
+
+        assertTrue(FreemarkerVariableRepository.compareAndSetVariable("counters", "status", null, "new"));
+        assertFalse(FreemarkerVariableRepository.compareAndSetVariable("counters", "status", null, "paid"));
+        assertTrue(FreemarkerVariableRepository.compareAndSetVariable("counters", "status", "new", "paid"));
+        assertTrue(FreemarkerVariableRepository.compareAndSetVariable("counters", "sequence", 1000L, 7.5));
+        assertTrue(FreemarkerVariableRepository.compareAndSetVariable("counters", "sequence", 7.50, null));
+
+        FreemarkerVariableRepository.disableJournal();
+        FreemarkerVariableRepository.unwatchVariableSets();
+        FreemarkerVariableRepository.reset();
+        FreemarkerVariableRepository.enableJournal(journalFile, 1024 * 1024);
+        assertEquals("{status=paid}", FreemarkerVariableRepository.getVariableSet("counters").toString());
+    }
+
+    @Test
+    public void testAtomicUpdatesOfLargeSet() {
+        Map<String, Object> expected = new LinkedHashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            expected.put("k" + i, 1000 + i);
+        }
+        FreemarkerVariableRepository.setVariableSet("counters", expected);
+        Map<String, Object> published = FreemarkerVariableRepository.getVariableSet("counters");
+
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            String key = "k" + random.nextInt(101000);
+            Object current = expected.get(key);
+            // text values are only replaced
+            switch (current instanceof String ? 2 : i % 3) {
+            case 0:
+                long value = (current == null ? 0 : ((Number) current).longValue()) + 7;
+                assertEquals(value, FreemarkerVariableRepository.incrementVariable("counters", key, 7));
+                expected.put(key, (int) value);
+                break;
+            case 1:
+                assertTrue(FreemarkerVariableRepository.compareAndSetVariable("counters", key, current, i));
+                assertFalse(FreemarkerVariableRepository.compareAndSetVariable("counters", key, current, -1));
+                expected.put(key, i);
+                break;
+            default:
+                assertEquals(current, FreemarkerVariableRepository.putVariable("counters", key, "value " + i));
+                expected.put(key, "value " + i);
+            }
+        }
+
+        Map<String, Object> updated = FreemarkerVariableRepository.getVariableSet("counters");
+        assertEquals(expected, updated);
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(updated.keySet()));
+        assertEquals(1000, published.get("k0"));
+        assertEquals(100000, published.size());
+        // each update only replaced its own key
+        published.forEach((key, value) -> {
+            if (value.equals(expected.get(key))) {
+                assertSame(value, updated.get(key));
+            }
+        });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOnlyNumbersAreIncremented() {
+        FreemarkerVariableRepository.putVariable("counters", "status", "new");
+        FreemarkerVariableRepository.incrementVariable("counters", "status", 1);
+    }
+
+    @Test
+    public void testBoundedSetEvictsLeastRecentlyWritten() throws IOException {
+        Path journalFile = folder.getRoot().toPath().resolve("variables.journal");
+        FreemarkerVariableRepository.enableJournal(journalFile, 1024 * 1024);
+        FreemarkerVariableRepository.setSettings("sessions", new VariableSetSettings(null, null, 0, 3, 0));
+
+        FreemarkerVariableRepository.putVariable("sessions", "uno", "miguel");
+        FreemarkerVariableRepository.putVariable("sessions", "dos", "manuel");
+        FreemarkerVariableRepository.putVariable("sessions", "tres", "juan");
+        FreemarkerVariableRepository.putVariable("sessions", "uno", "jose");
+        FreemarkerVariableRepository.putVariable("sessions", "cuatro", "pedro");
+
+        assertEquals("{uno=jose, tres=juan, cuatro=pedro}", FreemarkerVariableRepository.getVariableSet("sessions").toString());
+        assertEquals("{expired=0, evicted=1}", FreemarkerVariableRepository.getEvictionCounters("sessions").toString());
+        assertNull(FreemarkerVariableRepository.getEvictionCounters("other"));
+
+        FreemarkerVariableRepository.setSettings("sessions", new VariableSetSettings(null, null, 0, 0, 8));
+        assertEquals("{cuatro=pedro}", FreemarkerVariableRepository.getVariableSet("sessions").toString());
+
+        FreemarkerVariableRepository.disableJournal();
+        FreemarkerVariableRepository.unwatchVariableSets();
+        FreemarkerVariableRepository.reset();
+        FreemarkerVariableRepository.enableJournal(journalFile, 1024 * 1024);
+        assertEquals("{cuatro=pedro}", FreemarkerVariableRepository.getVariableSet("sessions").toString());
+    }
+
+    @Test
+    public void testStoredSetsEvictLeastRecentlyWritten() throws InterruptedException {
+        List<String> storages = Arrays.asList(VariableSetSettings.OFF_HEAP_STORAGE, VariableSetSettings.COLUMNAR_STORAGE);
+        Map<String, Object> variables = new LinkedHashMap<>();
+        variables.put("uno", Collections.singletonMap("name", "miguel"));
+        variables.put("dos", Collections.singletonMap("name", "manuel"));
+        variables.put("tres", Collections.singletonMap("name", "juan"));
+        for (String storage : storages) {
+            FreemarkerVariableRepository.setSettings("bounded-" + storage, new VariableSetSettings(null, storage, 0, 3, 0));
+            FreemarkerVariableRepository.setSettings("expiring-" + storage, new VariableSetSettings(null, storage, 2, 0, 0));
+            FreemarkerVariableRepository.setVariableSet("bounded-" + storage, variables);
+            FreemarkerVariableRepository.setVariableSet("expiring-" + storage, variables);
+        }
+
+        // writing a key of a stored set doesn't make its other keys more recently written
+        Thread.sleep(1200);
+        for (String storage : storages) {
+            FreemarkerVariableRepository.putVariable("bounded-" + storage, "uno", Collections.singletonMap("name", "jose"));
+            FreemarkerVariableRepository.putVariable("bounded-" + storage, "cuatro", Collections.singletonMap("name", "pedro"));
+            FreemarkerVariableRepository.patchVariableSet("expiring-" + storage, Collections.singletonMap("uno", Collections.singletonMap("name", "jose")));
+        }
+        Thread.sleep(1100);
+        for (String storage : storages) {
+            FreemarkerVariableRepository.putVariable("expiring-" + storage, "cuatro", Collections.singletonMap("name", "pedro"));
+
+            assertEquals("{uno={name=jose}, tres={name=juan}, cuatro={name=pedro}}",
+                    FreemarkerVariableRepository.getVariableSet("bounded-" + storage).toString());
+            assertEquals("{expired=0, evicted=1}", FreemarkerVariableRepository.getEvictionCounters("bounded-" + storage).toString());
+            assertEquals("{uno={name=jose}, cuatro={name=pedro}}", FreemarkerVariableRepository.getVariableSet("expiring-" + storage).toString());
+            assertEquals("{expired=2, evicted=0}", FreemarkerVariableRepository.getEvictionCounters("expiring-" + storage).toString());
+        }
+    }
+
+    @Test
+    public void testExpiredVariablesAreSwept() throws InterruptedException {
+        FreemarkerVariableRepository.setSettings("sessions", new VariableSetSettings(null, null, 1, 0, 0));
+        FreemarkerVariableRepository.putVariable("sessions", "uno", "miguel");
+        long version = FreemarkerVariableRepository.getVersion();
+
+        // expires after one second, and the sweeper runs every second
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!FreemarkerVariableRepository.getVariableSet("sessions").isEmpty() && System.currentTimeMillis() < deadline) {
+            FreemarkerVariableRepository.awaitVersion(version, 1000);
+        }
+        assertTrue(FreemarkerVariableRepository.getVariableSet("sessions").isEmpty());
+        assertEquals("{expired=1, evicted=0}", FreemarkerVariableRepository.getEvictionCounters("sessions").toString());
+    }
+
+    @Test
+    public void testVariableSetsAreLoadedFromFiles() throws IOException {
+        Path directory = folder.newFolder("variables").toPath();
+        String customers = "{ \"uno\" : {\"name\" : \"miguel\", \"tags\" : [\"toro\", 1, 2.5, true, null]},\n"
+                + "  \"dos\":\"ma\\\"nu\\u00e9l\", \"tres\" : 42, \"cuatro\" : false, \"cinco\" : null, \"uno\" : {\"name\" : \"josé\"} }";
+        Files.write(directory.resolve("customers.json"), customers.getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve("empty.json"), "{}".getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve("ignored.txt"), "not variables".getBytes(StandardCharsets.UTF_8));
+
+        FreemarkerVariableRepository.loadVariableSets(directory);
+
+        Map<String, Object> loaded = FreemarkerVariableRepository.getVariableSet("customers");
+        assertTrue(loaded instanceof OffHeapVariables);
+        assertEquals(VariableCodec.variablesReader().readValue(customers), loaded);
+        assertEquals("[uno, dos, tres, cuatro, cinco]", loaded.keySet().toString());
+        assertEquals("josé", ((Map<?, ?>) loaded.get("uno")).get("name"));
+        assertTrue(FreemarkerVariableRepository.getVariableSet("empty").isEmpty());
+        assertEquals("[customers, empty]", FreemarkerVariableRepository.getSnapshots().keySet().toString());
+    }
+
+    @Test
+    public void testMappedVariableSetsSurviveFileEdits() throws IOException {
+        Path file = folder.newFolder("variables").toPath().resolve("customers.json");
+        char[] padding = new char[2 * 1024 * 1024];
+        Arrays.fill(padding, 'x');
+        Files.write(file, ("{\"padding\" : \"" + new String(padding) + "\", \"uno\" : \"miguel\"}").getBytes(StandardCharsets.UTF_8));
+        FreemarkerVariableRepository.loadVariableSet(file);
+        Map<String, Object> loaded = FreemarkerVariableRepository.getVariableSet("customers");
+
+        // truncating the file in place doesn't reach the loaded variables
+        Files.write(file, "{}".getBytes(StandardCharsets.UTF_8));
+        assertEquals("miguel", loaded.get("uno"));
+        assertEquals(padding.length, ((String) loaded.get("padding")).length());
+
+        FreemarkerVariableRepository.loadVariableSet(file);
+        assertTrue(FreemarkerVariableRepository.getVariableSet("customers").isEmpty());
+        assertEquals("miguel", loaded.get("uno"));
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testOnlyJsonObjectsAreLoaded() throws IOException {
+        Path directory = folder.newFolder("variables").toPath();
+        Files.write(directory.resolve("list.json"), "[1, 2]".getBytes(StandardCharsets.UTF_8));
+        FreemarkerVariableRepository.loadVariableSets(directory);
+    }
+
+    @Test
+    public void testWatchedVariableSetsAreReloaded() throws IOException, InterruptedException {
+        Path directory = folder.newFolder("variables").toPath();
+        Files.write(directory.resolve("customers.json"), "{\"uno\" : \"miguel\"}".getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve("orders.json"), "{\"uno\" : 1}".getBytes(StandardCharsets.UTF_8));
+        FreemarkerVariableRepository.loadVariableSets(directory);
+        FreemarkerVariableRepository.watchVariableSets(directory);
+        VariableSet orders = FreemarkerVariableRepository.getSnapshot("orders");
+
+        Path replacement = folder.newFile().toPath();
+        Files.write(replacement, "{\"uno\" : \"manuel\"}".getBytes(StandardCharsets.UTF_8));
+        Files.move(replacement, directory.resolve("customers.json"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        awaitVariableSet("customers", "{uno=manuel}");
+        Files.write(directory.resolve("customers.json"), "{\"uno\" : \"juan\"}".getBytes(StandardCharsets.UTF_8));
+        awaitVariableSet("customers", "{uno=juan}");
+        assertSame(orders, FreemarkerVariableRepository.getSnapshot("orders"));
+
+        Files.write(directory.resolve("products.json"), "{\"uno\" : \"toro\"}".getBytes(StandardCharsets.UTF_8));
+        awaitVariableSet("products", "{uno=toro}");
+
+        Files.delete(directory.resolve("customers.json"));
+        awaitVariableSet("customers", null);
+        assertEquals("[orders, products]", FreemarkerVariableRepository.getSnapshots().keySet().toString());
+    }
+
+    /**
+     * Wait for the watcher to publish a variable set
+     * 
+     * @param setName the variable set name
+     * @param expected the expected variables, or null if the set is expected to be removed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static void awaitVariableSet(String setName, String expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!Objects.equals(expected, variablesOf(setName)) && System.currentTimeMillis() < deadline) {
+            FreemarkerVariableRepository.awaitVersion(FreemarkerVariableRepository.getVersion(), 100);
+        }
+        assertEquals(expected, variablesOf(setName));
+    }
+
+    /**
+     * @param setName the variable set name
+     * @return the variables of the set as a string, or null if the set doesn't exist
+     */
+    private static String variablesOf(String setName) {
+        Map<String, Object> variables = FreemarkerVariableRepository.getVariableSet(setName);
+        return variables == null ? null : variables.toString();
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * VariableValueDeserializerTest.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Unit test for {@link VariableValueDeserializer}
+ * 
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public class VariableValueDeserializerTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRepeatedValuesAreDeduplicated() throws IOException {
+        ObjectMapper jsonMapper = new ObjectMapper().registerModule(VariableValueDeserializer.module());
+        String json = "{\"uno\": {\"status\": \"active\", \"count\": 2000, \"big\": 5000000000, \"ratio\": 1.5, \"tags\": [\"active\"]},"
+                + " \"dos\": {\"status\": \"active\", \"count\": 2000, \"big\": 5000000000, \"ratio\": 1.5, \"tags\": [null, true]}}";
+
+        Map<String, Object> variables = jsonMapper.readValue(json, Map.class);
+        assertEquals(new ObjectMapper().readValue(json, Map.class), variables);
+
+        Map<String, Object> uno = (Map<String, Object>) variables.get("uno");
+        Map<String, Object> dos = (Map<String, Object>) variables.get("dos");
+        assertSame(uno.get("status"), dos.get("status"));
+        assertSame(uno.get("status"), ((List<Object>) uno.get("tags")).get(0));
+        assertSame(uno.get("count"), dos.get("count"));
+        assertEquals(5000000000L, dos.get("big"));
+    }
+
+}
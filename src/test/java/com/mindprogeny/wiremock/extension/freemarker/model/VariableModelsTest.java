@@ -0,0 +1,80 @@
+/*
+ * VariableModelsTest.java, 19 Oct 2026
+ * Created by Joao Viegas (joao.viegas@mindprogeny.com)
+ *
+ * Copyright (c) 2026 Mind Progeny.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mindprogeny.wiremock.extension.freemarker.model;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.mindprogeny.wiremock.extension.freemarker.FreemarkerVariableRepository;
+import com.mindprogeny.wiremock.extension.freemarker.VariableSet;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+
+/**
+ * Unit test for {@link VariableModels}
+ * 
+ * @author Jo&atilde;o Viegas (joao.viegas@mindprogeny.com)
+ * @since 19 Oct 2026
+ *
+ */
+public class VariableModelsTest {
+
+    @Test
+    public void testModelIsSharedPerVersion() {
+        FreemarkerVariableRepository.setVariableSet("models", Collections.singletonMap("uno", "miguel"));
+        VariableSet snapshot = FreemarkerVariableRepository.getSnapshot("models");
+        assertSame(snapshot.getModel(), snapshot.getModel());
+        assertSame(snapshot.getModel(), FreemarkerVariableRepository.getSnapshot("models").getModel());
+
+        FreemarkerVariableRepository.setVariableSet("models", Collections.singletonMap("uno", "manuel"));
+        assertNotSame(snapshot.getModel(), FreemarkerVariableRepository.getSnapshot("models").getModel());
+        FreemarkerVariableRepository.removeVariableSet("models");
+    }
+
+    @Test
+    public void testTemplateAccess() throws Exception {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("name", "miguel");
+        record.put("age", 33);
+        record.put("active", true);
+        record.put("tags", Arrays.asList("matador", "toro"));
+        record.put("nothing", null);
+        Map<String, Object> variables = new LinkedHashMap<>();
+        variables.put("uno", record);
+
+        Template template = new Template("test",
+                new StringReader("${var.uno.name} ${var.uno.age + 1} ${var.uno.active?c} ${var.uno.tags[1]} ${var.uno.nothing!'none'}"
+                               + "<#list var.uno.tags as tag> ${tag}</#list><#list var.uno as key, value> ${key}</#list> ${var?size}"),
+                new Configuration(Configuration.VERSION_2_3_23));
+        StringWriter writer = new StringWriter();
+        template.process(Collections.singletonMap("var", VariableModels.wrap(variables)), writer);
+
+        assertEquals("miguel 34 true toro none matador toro name age active tags nothing 1", writer.toString());
+    }
+
+}